@@ -0,0 +1,87 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.AsyncOperations;
+import ch.dsd.profiling.eavprofiling.AsyncResult;
+import ch.dsd.profiling.eavprofiling.ConnectionPool;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.PooledOperations;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bursts of inFlight random lookups through AsyncOperations, all issued before
+ * the first one is awaited. windowMicros = 0 sends every lookup as its own
+ * query; larger windows coalesce them into multi-gets. Scores are bursts, so
+ * lookups per second are the score times inFlight.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class AsyncBenchmark {
+
+	@Param({"STDTable", "EAVTable"})
+	public String schemaName;
+
+	@Param({"100000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	@Param({"4"})
+	public int workers;
+
+	@Param({"1000"})
+	public int inFlight;
+
+	@Param({"0", "100", "1000"})
+	public long windowMicros;
+
+	private Connection con;
+	private IDBOperations schema;
+	private ConnectionPool pool;
+	private AsyncOperations async;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final int[] attrIdcs = BenchSupport.parseAttrs(attrs);
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		schema.createTable(BenchSupport.COLS, attrIdcs);
+		BenchSupport.bulkFill(schema, tableSize, new Random(42));
+		pool = new ConnectionPool(schema, BenchSupport.connections(), workers, 10000);
+		pool.open(BenchSupport.COLS, attrIdcs);
+		async = new AsyncOperations(new PooledOperations(pool), workers, inFlight, windowMicros);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		async.close();
+		pool.close();
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public void getValsBurst(Blackhole bh) throws SQLException {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final AsyncResult<double[]>[] results = new AsyncResult[inFlight];
+		for( int i = 0; i < inFlight; i++ ) {
+			results[i] = async.getVals(ThreadLocalRandom.current().nextInt(tableSize));
+		}
+		for( AsyncResult<double[]> r: results ) {
+			bh.consume(r.await());
+		}
+	}
+}
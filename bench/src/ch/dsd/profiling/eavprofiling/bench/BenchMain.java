@@ -0,0 +1,11 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+/**
+ * Entry point for the benchmark module; accepts the regular JMH command line,
+ * e.g. "ReadBenchmark.getVals -p schemaName=EAVTable -rf json".
+ */
+public class BenchMain {
+	public static void main(String[] args) throws Exception {
+		org.openjdk.jmh.Main.main(args);
+	}
+}
@@ -0,0 +1,130 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.BlobTable;
+import ch.dsd.profiling.eavprofiling.ColumnarTable;
+import ch.dsd.profiling.eavprofiling.ConnectionFactory;
+import ch.dsd.profiling.eavprofiling.DerbyConnectionFactory;
+import ch.dsd.profiling.eavprofiling.DerbyNetworkServer;
+import ch.dsd.profiling.eavprofiling.EAVTable;
+import ch.dsd.profiling.eavprofiling.Float32Codec;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.MmapVectorStore;
+import ch.dsd.profiling.eavprofiling.QuantizingCodec;
+import ch.dsd.profiling.eavprofiling.RawCodec;
+import ch.dsd.profiling.eavprofiling.STDTable;
+import ch.dsd.profiling.eavprofiling.VectorCodec;
+import ch.dsd.profiling.eavprofiling.XorCodec;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Connection and fixture helpers shared by the JMH benchmarks. Every trial
+ * runs against a local embedded Derby database in the working directory, or,
+ * with -Dbench.framework=derbyclient (pass it through -jvmArgsAppend), through
+ * the ClientDriver against a Network Server started inside the benchmark JVM.
+ */
+final class BenchSupport {
+	static final int COLS = 23;
+
+	private static final String driver = "org.apache.derby.jdbc.EmbeddedDriver";
+	private static final String dbName = "derbyBenchDB";
+	private static final boolean client = "derbyclient".equals(System.getProperty("bench.framework"));
+	private static DerbyNetworkServer server;
+
+	private BenchSupport() {
+	}
+
+	static Connection connect() throws Exception {
+		Class.forName(driver).newInstance();
+		return connections().newConnection();
+	}
+
+	static synchronized ConnectionFactory connections() throws SQLException {
+		if( !client ) {
+			return DerbyConnectionFactory.embedded(dbName, "user1", "user1");
+		}
+		if( server == null ) {
+			server = new DerbyNetworkServer(DerbyNetworkServer.Mode.IN_PROCESS, DerbyNetworkServer.DEFAULT_PORT);
+			server.start();
+		}
+		return server.connections(dbName, "user1", "user1");
+	}
+
+	static synchronized void shutdown() {
+		try {
+			if( server != null ) server.stop();
+		} catch (SQLException se) {
+			se.printStackTrace(System.err);
+		} finally {
+			server = null;
+		}
+		try {
+			DriverManager.getConnection("jdbc:derby:;shutdown=true");
+		} catch (SQLException se) {
+			/* XJ015 is the expected outcome of a clean shutdown */
+			if (!"XJ015".equals(se.getSQLState()))
+				se.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * @param name simple class name of the layout, as used in the @Param lists;
+	 *             "EAVTable-COVERING" etc. selects an EAVTable index strategy,
+	 *             "ColumnarTable-XOR" etc. a ColumnarTable codec
+	 */
+	static IDBOperations newSchema(String name) {
+		if ("STDTable".equals(name)) return new STDTable();
+		if ("EAVTable".equals(name)) return new EAVTable();
+		if (name.startsWith("EAVTable-"))
+			return new EAVTable(EAVTable.IndexStrategy.valueOf(name.substring("EAVTable-".length())));
+		if ("BlobTable".equals(name)) return new BlobTable();
+		if ("MmapVectorStore".equals(name)) return new MmapVectorStore();
+		if ("ColumnarTable".equals(name)) return new ColumnarTable();
+		if (name.startsWith("ColumnarTable-"))
+			return new ColumnarTable(newCodec(name.substring("ColumnarTable-".length())));
+		throw new IllegalArgumentException("Unknown IDBOperations implementation: " + name);
+	}
+
+	/**
+	 * @param name "RAW", "XOR", "FLOAT32" or "Q" followed by the maximum error, e.g. "Q0.0005"
+	 */
+	static VectorCodec newCodec(String name) {
+		if ("RAW".equals(name)) return new RawCodec();
+		if ("XOR".equals(name)) return new XorCodec();
+		if ("FLOAT32".equals(name)) return new Float32Codec();
+		if (name.startsWith("Q")) return new QuantizingCodec(Double.parseDouble(name.substring(1)));
+		throw new IllegalArgumentException("Unknown VectorCodec: " + name);
+	}
+
+	/**
+	 * @param spec comma separated attribute indices, e.g. "0,1,2"
+	 */
+	static int[] parseAttrs(String spec) {
+		final String[] parts = spec.split(",");
+		final int[] res = new int[parts.length];
+		for( int i = 0; i < parts.length; i++ ) {
+			res[i] = Integer.parseInt(parts[i].trim());
+		}
+		return res;
+	}
+
+	static double[] randomVector(Random rnd, int n) {
+		final double[] res = new double[n];
+		for( int i = 0; i < n; i++ ) {
+			res[i] = rnd.nextDouble();
+		}
+		return res;
+	}
+
+	static void bulkFill(IDBOperations schema, int n, Random rnd) throws SQLException {
+		final double[][] vecs = new double[n][];
+		for( int i = 0; i < n; i++ ) {
+			vecs[i] = randomVector(rnd, COLS);
+		}
+		schema.bulkInsert(vecs);
+		schema.commit();
+	}
+}
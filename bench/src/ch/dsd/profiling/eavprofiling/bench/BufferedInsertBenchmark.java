@@ -0,0 +1,85 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.BufferedVectorWriter;
+import ch.dsd.profiling.eavprofiling.IBatchInsert;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write benchmark for the BufferedVectorWriter, the counterpart of
+ * InsertBenchmark.insertVec. Every invocation hands batchSize vectors to the
+ * writer and waits until they are committed. While it is open the writer owns
+ * the layout's insert statement, so it gets a benchmark, and thereby a fork
+ * and a schema instance, of its own. Table and writer are recreated before
+ * every iteration.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BufferedInsertBenchmark {
+
+	@Param({"STDTable", "EAVTable", "BlobTable", "MmapVectorStore", "ColumnarTable"})
+	public String schemaName;
+
+	@Param({"1000", "100000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	@Param({"100", "200"})
+	public int batchSize;
+
+	private Connection con;
+	private IDBOperations schema;
+	private double[][] vectors;
+	private BufferedVectorWriter writer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final Random rnd = new Random(42);
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		/* generate the payload up front so random number generation is not measured */
+		vectors = new double[batchSize][];
+		for( int i = 0; i < batchSize; i++ ) {
+			vectors[i] = BenchSupport.randomVector(rnd, BenchSupport.COLS);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void createTable() throws SQLException {
+		schema.createTable(BenchSupport.COLS, BenchSupport.parseAttrs(attrs));
+		BenchSupport.bulkFill(schema, tableSize, new Random(7));
+		writer = new BufferedVectorWriter((IBatchInsert) schema, batchSize, Long.MAX_VALUE, 1, batchSize);
+	}
+
+	@TearDown(Level.Iteration)
+	public void closeWriter() throws SQLException {
+		writer.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public void bufferedInsert() throws SQLException {
+		for( double[] vec: vectors ) {
+			writer.write(vec);
+		}
+		writer.flush();
+	}
+}
@@ -0,0 +1,74 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.CachingOperations;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.ZipfGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getVals under a Zipf distributed key stream, with and without a
+ * CachingOperations decorator in front of the layout. cacheCapacity=0 runs
+ * against the bare layout.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+	@Param({"STDTable", "EAVTable", "BlobTable"})
+	public String schemaName;
+
+	@Param({"100000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	@Param({"0", "1000", "10000"})
+	public int cacheCapacity;
+
+	@Param({"0.99", "0.8"})
+	public double zipfTheta;
+
+	private Connection con;
+	private IDBOperations schema;
+	private ZipfGenerator keys;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		if( cacheCapacity > 0 ) {
+			schema = new CachingOperations(schema, cacheCapacity);
+		}
+		schema.setConnection(con);
+		schema.createTable(BenchSupport.COLS, BenchSupport.parseAttrs(attrs));
+		BenchSupport.bulkFill(schema, tableSize, new Random(42));
+		keys = new ZipfGenerator(tableSize, zipfTheta, new Random(7));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		if( schema instanceof CachingOperations ) {
+			final CachingOperations cached = (CachingOperations) schema;
+			System.out.println(String.format("cache hits: %d, misses: %d, evictions: %d",
+				cached.getCache().getHits(), cached.getCache().getMisses(), cached.getCache().getEvictions()));
+		}
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public double[] getVals() throws SQLException {
+		return schema.getVals(keys.nextScrambledInt());
+	}
+}
@@ -0,0 +1,65 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.ColumnarTable;
+import ch.dsd.profiling.eavprofiling.VectorCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of one ColumnarTable chunk per VectorCodec, without
+ * the database. "smooth" data is a random walk rounded to three decimals,
+ * "random" uniform in [0, 1). The compression ratio of each combination is
+ * printed at setup; CompressionReport puts both next to table scan times.
+ */
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+	@Param({"RAW", "XOR", "FLOAT32", "Q0.0005"})
+	public String codecName;
+
+	@Param({"random", "smooth"})
+	public String data;
+
+	private VectorCodec codec;
+	private double[] vals;
+	private byte[] encoded;
+	private double[] decoded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		codec = BenchSupport.newCodec(codecName);
+		final Random rnd = new Random(42);
+		vals = new double[ColumnarTable.CHUNK_SIZE];
+		double v = rnd.nextDouble();
+		for( int i = 0; i < vals.length; i++ ) {
+			if( "smooth".equals(data) ) {
+				v += rnd.nextGaussian() * 0.01;
+				vals[i] = Math.round(v * 1000.0) / 1000.0;
+			} else {
+				vals[i] = rnd.nextDouble();
+			}
+		}
+		encoded = codec.encode(vals, vals.length);
+		decoded = new double[vals.length];
+		System.out.println(String.format("%s/%s compression ratio: %.2f", codecName, data,
+			vals.length * 8.0 / encoded.length));
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return codec.encode(vals, vals.length);
+	}
+
+	@Benchmark
+	public double[] decode() {
+		codec.decode(encoded, decoded);
+		return decoded;
+	}
+}
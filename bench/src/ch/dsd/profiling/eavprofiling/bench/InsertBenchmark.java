@@ -0,0 +1,82 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write benchmark for insertVec. Every invocation inserts batchSize vectors
+ * into a table pre-filled with tableSize rows and commits once, mirroring the
+ * fill loop in Main. bulkInsert loads the same vectors through Derby's import
+ * procedure for comparison; BufferedInsertBenchmark covers the
+ * BufferedVectorWriter. The table is recreated and refilled before every
+ * iteration, so it never grows beyond tableSize plus one iteration's inserts.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+	@Param({"STDTable", "EAVTable", "BlobTable", "MmapVectorStore", "ColumnarTable"})
+	public String schemaName;
+
+	@Param({"1000", "100000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	@Param({"100", "200"})
+	public int batchSize;
+
+	private Connection con;
+	private IDBOperations schema;
+	private double[][] vectors;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final Random rnd = new Random(42);
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		/* generate the payload up front so random number generation is not measured */
+		vectors = new double[batchSize][];
+		for( int i = 0; i < batchSize; i++ ) {
+			vectors[i] = BenchSupport.randomVector(rnd, BenchSupport.COLS);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void createTable() throws SQLException {
+		schema.createTable(BenchSupport.COLS, BenchSupport.parseAttrs(attrs));
+		BenchSupport.bulkFill(schema, tableSize, new Random(7));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public void insertVec() throws SQLException {
+		for( double[] vec: vectors ) {
+			schema.insertVec(vec);
+		}
+		schema.commit();
+	}
+
+	@Benchmark
+	public void bulkInsert() throws SQLException {
+		schema.bulkInsert(vectors);
+		schema.commit();
+	}
+}
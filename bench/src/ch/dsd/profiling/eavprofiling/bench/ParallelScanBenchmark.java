@@ -0,0 +1,79 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.DerbyConnectionFactory;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.ParallelScanner;
+import ch.dsd.profiling.eavprofiling.VectorConsumer;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Full-table scans split over a growing number of partitions/connections.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ParallelScanBenchmark {
+
+	@Param({"STDTable", "EAVTable", "BlobTable"})
+	public String schemaName;
+
+	@Param({"1000000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	@Param({"1", "2", "4", "8", "16"})
+	public int partitions;
+
+	private Connection con;
+	private IDBOperations schema;
+	private ParallelScanner scanner;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final int[] attrIdcs = BenchSupport.parseAttrs(attrs);
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		schema.createTable(BenchSupport.COLS, attrIdcs);
+		BenchSupport.bulkFill(schema, tableSize, new Random(42));
+		scanner = new ParallelScanner(schema, BenchSupport.connections(), partitions);
+		scanner.open(BenchSupport.COLS, attrIdcs);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		scanner.close();
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public List<double[]> getFullTableOrdered() throws SQLException {
+		return scanner.getFullTable();
+	}
+
+	@Benchmark
+	public long forEachVectorUnordered() throws SQLException {
+		final AtomicLong rows = new AtomicLong();
+		scanner.forEachVector(new VectorConsumer() {
+			@Override
+			public void accept(double[] vals) {
+				rows.incrementAndGet();
+			}
+		});
+		return rows.get();
+	}
+}
@@ -0,0 +1,93 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.ConnectionFactory;
+import ch.dsd.profiling.eavprofiling.ConnectionPool;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.PooledOperations;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent lookups from 8 threads, either through PooledOperations or with
+ * a connection and layout instance opened (and its statements prepared) for
+ * every task. Pool wait times are printed at teardown.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PoolBenchmark {
+
+	@Param({"STDTable", "EAVTable"})
+	public String schemaName;
+
+	@Param({"100000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	@Param({"2", "8"})
+	public int poolSize;
+
+	private Connection con;
+	private IDBOperations schema;
+	private int[] projection;
+	private ConnectionFactory connections;
+	private ConnectionPool pool;
+	private PooledOperations pooled;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		projection = BenchSupport.parseAttrs(attrs);
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		schema.createTable(BenchSupport.COLS, projection);
+		BenchSupport.bulkFill(schema, tableSize, new Random(42));
+		connections = BenchSupport.connections();
+		pool = new ConnectionPool(schema, connections, poolSize, 10000);
+		pooled = new PooledOperations(pool);
+		pooled.openTable(BenchSupport.COLS, projection);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		System.out.println(String.format("pool wait avg: %.3f, p99: %.3f [us], connections created: %d",
+			pool.getWaitTimes().getAverage() / 1000.0, pool.getWaitTimes().getPercentile(99.0) / 1000.0,
+			pool.getCreated()));
+		pooled.dispose();
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public double[] pooledGetVals() throws SQLException {
+		return pooled.getVals(ThreadLocalRandom.current().nextInt(tableSize));
+	}
+
+	@Benchmark
+	public double[] connectionPerTaskGetVals() throws Exception {
+		final Connection c = connections.newConnection();
+		try {
+			final IDBOperations s = BenchSupport.newSchema(schemaName);
+			s.setConnection(c);
+			s.openTable(BenchSupport.COLS, projection);
+			final double[] res = s.getVals(ThreadLocalRandom.current().nextInt(tableSize));
+			s.dispose();
+			return res;
+		} finally {
+			c.commit();
+			c.close();
+		}
+	}
+}
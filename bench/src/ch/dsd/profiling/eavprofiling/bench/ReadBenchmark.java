@@ -0,0 +1,117 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.AttributeStats;
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.VectorBlock;
+import ch.dsd.profiling.eavprofiling.VectorConsumer;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state read benchmarks for every IDBOperations read path. The table is
+ * filled once per trial; warm-up iterations take care of JIT compilation and
+ * Derby's page cache before anything is measured.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ReadBenchmark {
+
+	@Param({"STDTable", "EAVTable", "BlobTable", "MmapVectorStore", "ColumnarTable",
+		"ColumnarTable-XOR", "ColumnarTable-FLOAT32", "EAVTable-NONE", "EAVTable-COMPOSITE", "EAVTable-COVERING", "EAVTable-PRIMARY_KEY"})
+	public String schemaName;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int tableSize;
+
+	@Param({"0,1,2,3,4,5", "0", "0,1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22"})
+	public String attrs;
+
+	@Param({"100", "200"})
+	public int batchSize;
+
+	private Connection con;
+	private IDBOperations schema;
+	private int[] projection;
+	private VectorBlock block;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		projection = BenchSupport.parseAttrs(attrs);
+		schema.createTable(BenchSupport.COLS, projection);
+		BenchSupport.bulkFill(schema, tableSize, new Random(42));
+		block = new VectorBlock();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public double[] getVals() throws SQLException {
+		return schema.getVals(ThreadLocalRandom.current().nextInt(tableSize));
+	}
+
+	@Benchmark
+	public List<double[]> getValsMulti() throws SQLException {
+		final int[] ids = new int[batchSize];
+		for( int i = 0; i < batchSize; i++ ) {
+			ids[i] = ThreadLocalRandom.current().nextInt(tableSize);
+		}
+		return schema.getVals(ids);
+	}
+
+	@Benchmark
+	public List<double[]> getRange() throws SQLException {
+		final int from = ThreadLocalRandom.current().nextInt(Math.max(1, tableSize - batchSize));
+		return schema.getRange(from, from + batchSize);
+	}
+
+	@Benchmark
+	public List<double[]> getFullTable() throws SQLException {
+		return schema.getFullTable();
+	}
+
+	/* same statistics a client would compute from getFullTable */
+	@Benchmark
+	public AttributeStats aggregate() throws SQLException {
+		return schema.aggregate(projection, 0, tableSize);
+	}
+
+	@Benchmark
+	public VectorBlock getRangeBlock() throws SQLException {
+		final int from = ThreadLocalRandom.current().nextInt(Math.max(1, tableSize - batchSize));
+		return schema.getRange(from, from + batchSize, block);
+	}
+
+	@Benchmark
+	public VectorBlock getFullTableBlock() throws SQLException {
+		return schema.getFullTable(block);
+	}
+
+	@Benchmark
+	public void forEachVector(final Blackhole bh) throws SQLException {
+		schema.forEachVector(new VectorConsumer() {
+			@Override
+			public void accept(double[] vals) {
+				bh.consume(vals[0]);
+			}
+		});
+	}
+}
@@ -0,0 +1,88 @@
+package ch.dsd.profiling.eavprofiling.bench;
+
+import ch.dsd.profiling.eavprofiling.IDBOperations;
+import ch.dsd.profiling.eavprofiling.Predicate;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtered reads through IDBOperations.select next to point lookups on the
+ * same table. Values are uniform in [0, 1), so a conjunction of filterAttrs
+ * ranges of width selectivity^(1/filterAttrs) keeps about selectivity of the
+ * vectors; the range position is randomized per call.
+ */
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SelectBenchmark {
+
+	@Param({"STDTable", "EAVTable", "BlobTable", "MmapVectorStore", "ColumnarTable"})
+	public String schemaName;
+
+	@Param({"100000"})
+	public int tableSize;
+
+	@Param({"0.001", "0.01", "0.1"})
+	public double selectivity;
+
+	@Param({"1", "3"})
+	public int filterAttrs;
+
+	@Param({"false", "true"})
+	public boolean indexed;
+
+	@Param({"0,1,2,3,4,5"})
+	public String attrs;
+
+	private Connection con;
+	private IDBOperations schema;
+	private int[] projection;
+	private double width;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		con = BenchSupport.connect();
+		schema = BenchSupport.newSchema(schemaName);
+		schema.setConnection(con);
+		projection = BenchSupport.parseAttrs(attrs);
+		schema.createTable(BenchSupport.COLS, projection);
+		BenchSupport.bulkFill(schema, tableSize, new Random(42));
+		if( indexed ) {
+			for( int a = 0; a < filterAttrs; a++ ) {
+				schema.createAttributeIndex(a);
+			}
+		}
+		width = Math.pow(selectivity, 1.0 / filterAttrs);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		schema.dispose();
+		con.close();
+		BenchSupport.shutdown();
+	}
+
+	@Benchmark
+	public List<double[]> select() throws SQLException {
+		Predicate filter = Predicate.all();
+		for( int a = 0; a < filterAttrs; a++ ) {
+			final double lo = ThreadLocalRandom.current().nextDouble() * (1.0 - width);
+			filter = filter.and(Predicate.range(a, lo, true, lo + width, false));
+		}
+		return schema.select(projection, filter);
+	}
+
+	@Benchmark
+	public double[] getVals() throws SQLException {
+		return schema.getVals(ThreadLocalRandom.current().nextInt(tableSize));
+	}
+}
@@ -0,0 +1,338 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking read facade: requests return an AsyncResult right away and
+ * run on a fixed set of worker threads against a thread-safe IDBOperations,
+ * normally PooledOperations over a ConnectionPool with at least as many
+ * connections as workers. Waiting requests are held in a bounded queue; once
+ * it is full, new requests fail immediately instead of blocking the caller.
+ * Single getVals lookups arriving within the coalescing window are combined
+ * into one multi-get, so many callers can keep thousands of lookups in flight
+ * on a handful of connections.
+ */
+public class AsyncOperations {
+	public static final int DEFAULT_MAX_BATCH = MultiGet.MAX_CHUNK_SIZE;
+
+	private interface Task<T> {
+		public T run( IDBOperations schema ) throws SQLException;
+	}
+
+	private final IDBOperations operations;
+	private final int maxQueued;
+	private final long windowMicros;
+	private final int maxBatch;
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+
+	/* lookups waiting for the current coalescing window to close */
+	private final Object lock = new Object();
+	private int[] pendingIds = new int[16];
+	private final List<AsyncResult<double[]>> pending = new ArrayList<AsyncResult<double[]>>();
+	private long generation = 0;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong batchedLookups = new AtomicLong();
+
+	/**
+	 * @param operations   called from all workers at once, so it must be thread-safe
+	 * @param workers      threads running requests
+	 * @param maxQueued    requests that may wait for a worker; more are rejected
+	 * @param windowMicros how long a lookup waits for others to share its query, 0 to send it on its own
+	 */
+	public AsyncOperations(IDBOperations operations, int workers, int maxQueued, long windowMicros) {
+		this(operations, workers, maxQueued, windowMicros, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * @param maxBatch lookups after which a coalesced query is sent without waiting for the window
+	 */
+	public AsyncOperations(IDBOperations operations, int workers, int maxQueued, long windowMicros, int maxBatch) {
+		if( workers < 1 || maxQueued < 1 || maxBatch < 1 )
+			throw new IllegalArgumentException("Need at least one worker, queue slot and lookup per batch");
+		this.operations = operations;
+		this.maxQueued = maxQueued;
+		this.windowMicros = windowMicros;
+		this.maxBatch = maxBatch;
+		executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(maxQueued), new DaemonThreadFactory("AsyncOperations-"));
+		timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("AsyncOperations-timer-"));
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private int n = 0;
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			final Thread t = new Thread(r, prefix + (n++));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+	/**
+	 * Looks up a single vector; may share a multi-get with other lookups.
+	 */
+	public AsyncResult<double[]> getVals(final int idx) {
+		final AsyncResult<double[]> res = track(new AsyncResult<double[]>());
+		if( windowMicros <= 0 ) {
+			return submit(res, new Task<double[]>() {
+				@Override
+				public double[] run(IDBOperations schema) throws SQLException {
+					return schema.getVals(idx);
+				}
+			});
+		}
+		int[] ids = null;
+		List<AsyncResult<double[]>> results = null;
+		synchronized( lock ) {
+			if( pending.size() == pendingIds.length ) {
+				pendingIds = Arrays.copyOf(pendingIds, pendingIds.length * 2);
+			}
+			pendingIds[pending.size()] = idx;
+			pending.add(res);
+			if( pending.size() >= maxBatch ) {
+				ids = Arrays.copyOf(pendingIds, pending.size());
+				results = takePending();
+			} else if( pending.size() == 1 ) {
+				final long gen = generation;
+				timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush(gen);
+					}
+				}, windowMicros, TimeUnit.MICROSECONDS);
+			}
+		}
+		if( results != null ) sendBatch(ids, results);
+		return res;
+	}
+
+	/* must hold lock */
+	private List<AsyncResult<double[]>> takePending() {
+		final List<AsyncResult<double[]>> res = new ArrayList<AsyncResult<double[]>>(pending);
+		pending.clear();
+		generation++;
+		return res;
+	}
+
+	/**
+	 * Sends the lookups of the given window, unless they already went out as a full batch.
+	 */
+	private void flush(long gen) {
+		final int[] ids;
+		final List<AsyncResult<double[]>> results;
+		synchronized( lock ) {
+			if( gen != generation || pending.isEmpty() ) return;
+			ids = Arrays.copyOf(pendingIds, pending.size());
+			results = takePending();
+		}
+		sendBatch(ids, results);
+	}
+
+	private void sendBatch(final int[] ids, final List<AsyncResult<double[]>> results) {
+		final AsyncResult<List<double[]>> batch = new AsyncResult<List<double[]>>();
+		batch.addCallback(new AsyncResult.Callback<List<double[]>>() {
+			@Override
+			public void onSuccess(List<double[]> vecs) {
+				for( int i = 0; i < results.size(); i++ ) {
+					results.get(i).set(vecs.get(i));
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				for( AsyncResult<double[]> r: results ) {
+					r.fail(failure);
+				}
+			}
+		});
+		batches.incrementAndGet();
+		batchedLookups.addAndGet(ids.length);
+		submit(batch, new Task<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getVals(ids);
+			}
+		});
+	}
+
+	public AsyncResult<List<double[]>> getVals(final int[] ids) {
+		return submit(track(new AsyncResult<List<double[]>>()), new Task<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getVals(ids);
+			}
+		});
+	}
+
+	public AsyncResult<double[]> getVals(final int idx, final int[] attrs) {
+		return submit(track(new AsyncResult<double[]>()), new Task<double[]>() {
+			@Override
+			public double[] run(IDBOperations schema) throws SQLException {
+				return schema.getVals(idx, attrs);
+			}
+		});
+	}
+
+	public AsyncResult<List<double[]>> getRange(final int fromIdx, final int toIdx) {
+		return submit(track(new AsyncResult<List<double[]>>()), new Task<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getRange(fromIdx, toIdx);
+			}
+		});
+	}
+
+	public AsyncResult<List<double[]>> getRange(final int fromIdx, final int toIdx, final int[] attrs) {
+		return submit(track(new AsyncResult<List<double[]>>()), new Task<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getRange(fromIdx, toIdx, attrs);
+			}
+		});
+	}
+
+	public AsyncResult<List<double[]>> select(final int[] attrs, final Predicate filter) {
+		return submit(track(new AsyncResult<List<double[]>>()), new Task<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.select(attrs, filter);
+			}
+		});
+	}
+
+	public AsyncResult<AttributeStats> aggregate(final int[] attrs, final int fromIdx, final int toIdx) {
+		return submit(track(new AsyncResult<AttributeStats>()), new Task<AttributeStats>() {
+			@Override
+			public AttributeStats run(IDBOperations schema) throws SQLException {
+				return schema.aggregate(attrs, fromIdx, toIdx);
+			}
+		});
+	}
+
+	/**
+	 * Counts res in getInFlight() until it completes.
+	 */
+	private <T> AsyncResult<T> track(AsyncResult<T> res) {
+		inFlight.incrementAndGet();
+		res.addCallback(new AsyncResult.Callback<T>() {
+			@Override
+			public void onSuccess(T result) {
+				completed.incrementAndGet();
+				inFlight.decrementAndGet();
+			}
+
+			@Override
+			public void onFailure(Throwable failure) {
+				failed.incrementAndGet();
+				inFlight.decrementAndGet();
+			}
+		});
+		return res;
+	}
+
+	/**
+	 * Queues the task for the next idle worker, or fails res if the queue is full.
+	 */
+	private <T> AsyncResult<T> submit(final AsyncResult<T> res, final Task<T> task) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if( res.isDone() ) return;
+					try {
+						res.set(task.run(operations));
+					} catch (Throwable t) {
+						res.fail(t);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			rejected.incrementAndGet();
+			res.fail(new SQLException("Request queue full (" + maxQueued + " waiting)", ree));
+		}
+		return res;
+	}
+
+	/* Requests accepted and not yet completed, including lookups waiting to be coalesced. */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/* Tasks waiting for a worker. */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/* Lookups waiting for the current coalescing window. */
+	public int getPendingLookups() {
+		synchronized( lock ) {
+			return pending.size();
+		}
+	}
+
+	public int getActiveWorkers() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/* Requests failed because the queue was full; also counted in getFailed(). */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/* Average number of lookups served by one coalesced query. */
+	public double getAverageBatchSize() {
+		final long n = batches.get();
+		return n == 0 ? 0.0 : batchedLookups.get() / (double) n;
+	}
+
+	/**
+	 * Sends any lookups still waiting and lets queued requests finish; the
+	 * IDBOperations stays open.
+	 */
+	public void close() throws SQLException {
+		timer.shutdownNow();
+		final long gen;
+		synchronized( lock ) {
+			gen = generation;
+		}
+		flush(gen);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for queued requests", ie);
+		}
+	}
+}
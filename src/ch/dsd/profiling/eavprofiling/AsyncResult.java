@@ -0,0 +1,133 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Result of an asynchronous request that is completed from outside, once per
+ * result, by whichever worker produced it. Callers either block in get() or
+ * register callbacks, which run on the completing thread (or right away if
+ * the result is already there) and should therefore be short.
+ */
+public class AsyncResult<T> implements Future<T> {
+
+	public interface Callback<T> {
+		public void onSuccess( T result );
+		public void onFailure( Throwable failure );
+	}
+
+	private T value;
+	private Throwable failure;
+	private boolean done;
+	private boolean cancelled;
+	private List<Callback<? super T>> callbacks;
+
+	/**
+	 * @return false if the result was already completed or cancelled
+	 */
+	boolean set(T value) {
+		return complete(value, null, false);
+	}
+
+	/**
+	 * @return false if the result was already completed or cancelled
+	 */
+	boolean fail(Throwable failure) {
+		return complete(null, failure, false);
+	}
+
+	private boolean complete(T value, Throwable failure, boolean cancel) {
+		final List<Callback<? super T>> pending;
+		synchronized( this ) {
+			if( done ) return false;
+			this.value = value;
+			this.failure = failure;
+			this.cancelled = cancel;
+			done = true;
+			notifyAll();
+			pending = callbacks;
+			callbacks = null;
+		}
+		if( pending != null ) {
+			for( Callback<? super T> cb: pending ) {
+				if( failure != null ) cb.onFailure(failure); else cb.onSuccess(value);
+			}
+		}
+		return true;
+	}
+
+	public void addCallback(Callback<? super T> callback) {
+		synchronized( this ) {
+			if( !done ) {
+				if( callbacks == null ) callbacks = new ArrayList<Callback<? super T>>(1);
+				callbacks.add(callback);
+				return;
+			}
+		}
+		if( failure != null ) callback.onFailure(failure); else callback.onSuccess(value);
+	}
+
+	/**
+	 * Marks the result as cancelled; a query already running is not interrupted.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(null, new CancellationException(), true);
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while( !done ) {
+			wait();
+		}
+		return result();
+	}
+
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+		TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while( !done ) {
+			final long left = deadline - System.nanoTime();
+			if( left <= 0 ) throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return result();
+	}
+
+	/**
+	 * Blocks like get(), with the request's SQLException rethrown as is.
+	 */
+	public T await() throws SQLException {
+		try {
+			return get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a result", ie);
+		} catch (CancellationException ce) {
+			throw new SQLException("Request was cancelled", ce);
+		} catch (ExecutionException ee) {
+			if( ee.getCause() instanceof SQLException )
+				throw (SQLException) ee.getCause();
+			throw new SQLException("Request failed", ee.getCause());
+		}
+	}
+
+	private T result() throws ExecutionException {
+		if( cancelled ) throw new CancellationException();
+		if( failure != null ) throw new ExecutionException(failure);
+		return value;
+	}
+}
@@ -0,0 +1,114 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * Per-attribute count, sum, sum of squares, min and max, as returned by
+ * IDBOperations.aggregate. Mean and variance are derived from these, so
+ * results over disjoint ranges (e.g. the partitions of a ParallelScanner)
+ * can be merged exactly. Null values are not counted.
+ */
+public class AttributeStats {
+	private final int[] attrs;
+	private final long[] count;
+	private final double[] sum;
+	private final double[] sumOfSquares;
+	private final double[] min;
+	private final double[] max;
+
+	public AttributeStats(int[] attrs) {
+		this.attrs = attrs.clone();
+		this.count = new long[attrs.length];
+		this.sum = new double[attrs.length];
+		this.sumOfSquares = new double[attrs.length];
+		this.min = new double[attrs.length];
+		this.max = new double[attrs.length];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+	}
+
+	public int[] getAttrs() {
+		return attrs.clone();
+	}
+
+	/**
+	 * Adds a single value of the i-th attribute.
+	 */
+	public void add(int i, double v) {
+		count[i]++;
+		sum[i] += v;
+		sumOfSquares[i] += v * v;
+		if( v < min[i] ) min[i] = v;
+		if( v > max[i] ) max[i] = v;
+	}
+
+	/**
+	 * Adds partial aggregates of the i-th attribute, e.g. one row of a
+	 * GROUP BY query. Nothing is added if count is 0.
+	 */
+	public void add(int i, long count, double sum, double sumOfSquares, double min, double max) {
+		if( count == 0 ) return;
+		this.count[i] += count;
+		this.sum[i] += sum;
+		this.sumOfSquares[i] += sumOfSquares;
+		if( min < this.min[i] ) this.min[i] = min;
+		if( max > this.max[i] ) this.max[i] = max;
+	}
+
+	public void merge(AttributeStats other) {
+		if( !Arrays.equals(attrs, other.attrs) )
+			throw new IllegalArgumentException("Statistics over different attributes");
+		for( int i = 0; i < attrs.length; i++ ) {
+			add(i, other.count[i], other.sum[i], other.sumOfSquares[i], other.min[i], other.max[i]);
+		}
+	}
+
+	public long getCount(int i) {
+		return count[i];
+	}
+
+	public double getSum(int i) {
+		return sum[i];
+	}
+
+	public double getSumOfSquares(int i) {
+		return sumOfSquares[i];
+	}
+
+	/** @return the smallest value, NaN if there is none */
+	public double getMin(int i) {
+		return count[i] == 0 ? Double.NaN : min[i];
+	}
+
+	/** @return the largest value, NaN if there is none */
+	public double getMax(int i) {
+		return count[i] == 0 ? Double.NaN : max[i];
+	}
+
+	/** @return the mean, NaN if there are no values */
+	public double getMean(int i) {
+		return count[i] == 0 ? Double.NaN : sum[i] / count[i];
+	}
+
+	/** @return the population variance, NaN if there are no values */
+	public double getVariance(int i) {
+		if( count[i] == 0 ) return Double.NaN;
+		final double mean = getMean(i);
+		return Math.max(0.0, sumOfSquares[i] / count[i] - mean * mean);
+	}
+
+	public double getStdDev(int i) {
+		return Math.sqrt(getVariance(i));
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < attrs.length; i++ ) {
+			if( i > 0 ) sb.append(", ");
+			sb.append(String.format("%d: n=%d mean=%.4f sd=%.4f min=%.4f max=%.4f", attrs[i], count[i],
+				getMean(i), getStdDev(i), getMin(i), getMax(i)));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,434 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packed layout: one row per vector, all attributes stored as little-endian
+ * doubles in a single VARCHAR FOR BIT DATA column. Projections are decoded
+ * straight from the byte array. Vector ids are assigned by the instance like
+ * in EAVTable; concurrent writers to one table must be copy()s of each other.
+ */
+public class BlobTable implements IDBOperations, IBatchInsert {
+	public static final String SQL_STATE_NOT_EXIST = "42Y55";
+	public static final String SQL_TABLE_NAME = "vectors_blob";
+	private static final String SQL_DROP_TABLE = "DROP TABLE " + SQL_TABLE_NAME;
+	private static final String SQL_KEY_NAME = "vector_id";
+	private static final String SQL_DATA_NAME = "data";
+	private static final String SQL_CREATE_TABLE =
+		"CREATE TABLE " + SQL_TABLE_NAME + " (" + SQL_KEY_NAME + " INT PRIMARY KEY, " + SQL_DATA_NAME +
+			" VARCHAR(%d) FOR BIT DATA)";
+	private static final String SQL_SELECT_FROM_WHERE =
+		"SELECT " + SQL_DATA_NAME + " FROM " + SQL_TABLE_NAME + " WHERE " + SQL_KEY_NAME + "=?";
+	private static final String SQL_SELECT_KEY_FROM_WHERE_IN =
+		"SELECT " + SQL_KEY_NAME + ", " + SQL_DATA_NAME + " FROM " + SQL_TABLE_NAME + " WHERE " + SQL_KEY_NAME +
+			" IN (%s)";
+	private static final String SQL_SELECT_RANGE =
+		"SELECT " + SQL_DATA_NAME + " FROM " + SQL_TABLE_NAME + " WHERE " + SQL_KEY_NAME + ">=? AND " +
+			SQL_KEY_NAME + "<? ORDER BY " + SQL_KEY_NAME;
+	private static final String SQL_SELECT_FROM =
+		"SELECT " + SQL_DATA_NAME + " FROM " + SQL_TABLE_NAME + " ORDER BY " + SQL_KEY_NAME;
+	private static final String SQL_INSERT_INTO_VALUES =
+		"INSERT INTO " + SQL_TABLE_NAME + " VALUES (?,?)";
+	private static final String SQL_SELECT_MAX_KEY =
+		"SELECT MAX(" + SQL_KEY_NAME + ") FROM " + SQL_TABLE_NAME;
+
+	private int cols;
+	private int[] attrs;
+	private Connection con;
+	private PreparedStatement psGetValues;
+	private PreparedStatement psInsertValues;
+	private PreparedStatement psRangeValues;
+	private PreparedStatement psFullTable;
+	private final PreparedStatement[] psMultiGet = new PreparedStatement[MultiGet.CHUNK_SIZES.length];
+	private final MultiGet multiGet = new MultiGet();
+	private int fetchSize = 0;
+
+	/* next vector id of this table; shared with the copies writing to it on other connections */
+	private final AtomicInteger currentId;
+
+	public BlobTable() {
+		this(new AtomicInteger());
+	}
+
+	private BlobTable(AtomicInteger currentId) {
+		this.currentId = currentId;
+	}
+
+	@Override
+	public String getName() {
+		return this.getClass().getName();
+	}
+
+	@Override
+	public IDBOperations copy() {
+		return new BlobTable(currentId);
+	}
+
+	@Override
+	public void setConnection(Connection con) throws SQLException {
+		this.con = con;
+		this.con.setAutoCommit(false);
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		Statement s;
+		this.cols = cols;
+		this.attrs = attrs;
+		s = this.con.createStatement();
+		try {
+			s.execute(SQL_DROP_TABLE);
+			con.commit();
+		} catch (SQLException sqlExc) {
+			if (!sqlExc.getSQLState().equals(SQL_STATE_NOT_EXIST))
+				throw sqlExc;
+		}
+		s.execute(String.format(SQL_CREATE_TABLE, cols * 8));
+		con.commit();
+		s.close();
+		prepareStatements();
+
+		currentId.set(0);
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		prepareStatements();
+
+		/* continue after the highest id already stored */
+		final int next = getMaxId() + 1;
+		int cur;
+		do {
+			cur = currentId.get();
+		} while( next > cur && !currentId.compareAndSet(cur, next) );
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		addBatchVec(vals);
+		psInsertValues.executeBatch();
+	}
+
+	@Override
+	public void addBatchVec(double[] vals) throws SQLException {
+		psInsertValues.setInt(1, currentId.getAndIncrement());
+		psInsertValues.setBytes(2, encode(vals, cols));
+		psInsertValues.addBatch();
+	}
+
+	@Override
+	public void executeBatch() throws SQLException {
+		psInsertValues.executeBatch();
+	}
+
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		final DerbyImport imp = new DerbyImport();
+		try {
+			while( vecs.hasNext() ) {
+				imp.writeRow(currentId.getAndIncrement(), encode(vecs.next(), cols));
+			}
+		} catch (SQLException sqlExc) {
+			imp.dispose();
+			throw sqlExc;
+		}
+		imp.load(con, SQL_TABLE_NAME.toUpperCase(), null);
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	@Override
+	public double[] getVals(int idx) throws SQLException {
+		ResultSet rs;
+		psGetValues.setInt(1, idx);
+		rs = psGetValues.executeQuery();
+		try {
+			if( rs.next() ) {
+				final double[] res = new double[attrs.length];
+				decode(rs.getBytes(1), attrs, res, 0);
+				return res;
+			}
+			return null;
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final double[][] res = new double[ids.length][];
+		int off = 0;
+		while( off < ids.length ) {
+			final int n = multiGet.init(ids, off);
+			final PreparedStatement ps = getMultiGetStatement(multiGet.getStatementSize());
+			for( int k = 0; k < multiGet.getStatementSize(); k++ ) {
+				ps.setInt(k+1, multiGet.getParameter(k));
+			}
+			final ResultSet rs = ps.executeQuery();
+			while( rs.next() ) {
+				final double[] vals = new double[attrs.length];
+				decode(rs.getBytes(2), attrs, vals, 0);
+				multiGet.assign(res, rs.getInt(1), vals);
+			}
+			rs.close();
+			off += n;
+		}
+		return Arrays.asList(res);
+	}
+
+	private PreparedStatement getMultiGetStatement(int size) throws SQLException {
+		final int slot = MultiGet.chunkSlot(size);
+		if( psMultiGet[slot] == null ) {
+			psMultiGet[slot] = con.prepareStatement(String.format(SQL_SELECT_KEY_FROM_WHERE_IN,
+				MultiGet.placeholders(size)));
+		}
+		return psMultiGet[slot];
+	}
+
+	private List<double[]> getMultipleValues(PreparedStatement ps) throws SQLException {
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final ResultSet rs = ps.executeQuery();
+		while( rs.next() ) {
+			final double[] vals = new double[attrs.length];
+			decode(rs.getBytes(1), attrs, vals, 0);
+			res.add(vals);
+		}
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		return getMultipleValues(psRangeValues);
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return getMultipleValues(psFullTable);
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		/* the whole vector is fetched anyway, so any projection uses the same statement */
+		psGetValues.setInt(1, idx);
+		final ResultSet rs = psGetValues.executeQuery();
+		try {
+			if( rs.next() ) {
+				final double[] res = new double[attrs.length];
+				decode(rs.getBytes(1), attrs, res, 0);
+				return res;
+			}
+			return null;
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final ResultSet rs = psRangeValues.executeQuery();
+		while( rs.next() ) {
+			final double[] vals = new double[attrs.length];
+			decode(rs.getBytes(1), attrs, vals, 0);
+			res.add(vals);
+		}
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		/* values are opaque to Derby, so every vector is fetched and filtered here */
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final ResultSet rs = psFullTable.executeQuery();
+		while( rs.next() ) {
+			final byte[] data = rs.getBytes(1);
+			if( matches(data, filter) ) {
+				final double[] vals = new double[attrs.length];
+				decode(data, attrs, vals, 0);
+				res.add(vals);
+			}
+		}
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		final AttributeStats res = new AttributeStats(attrs);
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		final ResultSet rs = psRangeValues.executeQuery();
+		while( rs.next() ) {
+			final byte[] data = rs.getBytes(1);
+			for( int i = 0; i < attrs.length; i++ ) {
+				res.add(i, decode(data, attrs[i]));
+			}
+		}
+		rs.close();
+		return res;
+	}
+
+	private static boolean matches(byte[] data, Predicate filter) {
+		for( int t = 0; t < filter.size(); t++ ) {
+			if( !filter.accepts(t, decode(data, filter.getAttr(t))) ) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) {
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		return fillBlock(psRangeValues, block);
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return fillBlock(psFullTable, block);
+	}
+
+	private VectorBlock fillBlock(PreparedStatement ps, VectorBlock block) throws SQLException {
+		final VectorBlock res = VectorBlock.reuse(block, attrs.length);
+		final ResultSet rs = ps.executeQuery();
+		while( rs.next() ) {
+			final int off = res.addRow();
+			decode(rs.getBytes(1), attrs, res.getData(), off);
+		}
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		stream(psRangeValues, consumer);
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		stream(psFullTable, consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		this.fetchSize = rows;
+		/* applied again whenever the statements are prepared */
+		if( psRangeValues != null ) {
+			psRangeValues.setFetchSize(rows);
+			psFullTable.setFetchSize(rows);
+		}
+	}
+
+	private void stream(PreparedStatement ps, VectorConsumer consumer) throws SQLException {
+		final double[] vals = new double[attrs.length];
+		final ResultSet rs = ps.executeQuery();
+		try {
+			while( rs.next() ) {
+				decode(rs.getBytes(1), attrs, vals, 0);
+				consumer.accept(vals);
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		final Statement s = con.createStatement();
+		try {
+			final ResultSet rs = s.executeQuery(SQL_SELECT_MAX_KEY);
+			final int max = rs.next() ? rs.getInt(1) : 0;
+			return rs.wasNull() ? -1 : max;
+		} finally {
+			s.close();
+		}
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		con.commit();
+	}
+
+	@Override
+	public void dispose() throws SQLException {
+		closePrepStatements();
+	}
+
+	static byte[] encode(double[] vals, int cols) {
+		final byte[] data = new byte[cols * 8];
+		for( int i = 0; i < cols; i++ ) {
+			long bits = Double.doubleToRawLongBits(vals[i]);
+			final int off = i * 8;
+			for( int b = 0; b < 8; b++ ) {
+				data[off + b] = (byte) bits;
+				bits >>>= 8;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Decodes the given attributes of a packed vector into res, starting at off.
+	 */
+	static void decode(byte[] data, int[] attrs, double[] res, int off) {
+		for( int i = 0; i < attrs.length; i++ ) {
+			res[off + i] = decode(data, attrs[i]);
+		}
+	}
+
+	static double decode(byte[] data, int attr) {
+		final int off = attr * 8;
+		long bits = 0;
+		for( int b = 7; b >= 0; b-- ) {
+			bits = (bits << 8) | (data[off + b] & 0xffL);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private void closePrepStatements() throws SQLException {
+		PreparedStatement[] psArray = {psGetValues, psInsertValues, psRangeValues, psFullTable};
+		for( PreparedStatement ps: psArray ) {
+			if( ps != null && !ps.isClosed()) {
+				ps.close();
+			}
+		}
+		for( int i = 0; i < psMultiGet.length; i++ ) {
+			if( psMultiGet[i] != null && !psMultiGet[i].isClosed() ) {
+				psMultiGet[i].close();
+			}
+			psMultiGet[i] = null;
+		}
+	}
+
+	private void prepareStatements() throws SQLException {
+		closePrepStatements();
+
+		psGetValues = con.prepareStatement(SQL_SELECT_FROM_WHERE);
+		psInsertValues = con.prepareStatement(SQL_INSERT_INTO_VALUES);
+		psRangeValues = con.prepareStatement(SQL_SELECT_RANGE);
+		psFullTable = con.prepareStatement(SQL_SELECT_FROM);
+		psRangeValues.setFetchSize(fetchSize);
+		psFullTable.setFetchSize(fetchSize);
+	}
+}
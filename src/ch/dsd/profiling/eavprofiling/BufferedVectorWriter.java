@@ -0,0 +1,167 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit writer in front of an IBatchInsert layout. Producers hand
+ * vectors to a bounded queue and return immediately; a background flusher
+ * thread collects up to batchVectors vectors (or batchBytes bytes of payload)
+ * into one JDBC batch and commits every commitEvery batches. When the queue is
+ * full, write() blocks until the flusher catches up.
+ *
+ * While the writer is open the flusher owns the target's insert statement and
+ * commits on its connection, so the target must not be written to directly.
+ */
+public class BufferedVectorWriter {
+	private static final long POLL_MILLIS = 10;
+
+	private final IBatchInsert target;
+	private final int batchVectors;
+	private final long batchBytes;
+	private final int commitEvery;
+	private final BlockingQueue<double[]> queue;
+	private final Thread flusher;
+	private final Object lock = new Object();
+
+	/* guarded by lock */
+	private long submitted = 0;
+	private long committed = 0;
+	private long flushTarget = 0;
+	private SQLException failure = null;
+
+	private volatile boolean running = true;
+
+	public BufferedVectorWriter(IBatchInsert target, int batchVectors, long batchBytes, int commitEvery,
+	                            int queueCapacity) {
+		if( batchVectors < 1 || batchBytes < 1 || commitEvery < 1 || queueCapacity < 1 )
+			throw new IllegalArgumentException("Batch size, commit interval and queue capacity must be positive");
+		this.target = target;
+		this.batchVectors = batchVectors;
+		this.batchBytes = batchBytes;
+		this.commitEvery = commitEvery;
+		this.queue = new ArrayBlockingQueue<double[]>(queueCapacity);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "BufferedVectorWriter-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Enqueues a vector; blocks while the queue is full. The array must not be
+	 * modified afterwards.
+	 */
+	public void write(double[] vals) throws SQLException {
+		checkFailure();
+		if( !running )
+			throw new SQLException("BufferedVectorWriter is closed");
+		try {
+			while( !queue.offer(vals, POLL_MILLIS, TimeUnit.MILLISECONDS) ) {
+				/* a dead flusher would otherwise leave us blocked forever */
+				checkFailure();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for queue space", ie);
+		}
+		synchronized (lock) {
+			submitted++;
+		}
+	}
+
+	/**
+	 * Blocks until every vector written before this call has been inserted
+	 * and committed.
+	 */
+	public void flush() throws SQLException {
+		synchronized (lock) {
+			final long waitFor = submitted;
+			if( waitFor > flushTarget ) flushTarget = waitFor;
+			while( committed < waitFor && failure == null ) {
+				try {
+					lock.wait();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while flushing", ie);
+				}
+			}
+		}
+		checkFailure();
+	}
+
+	public void close() throws SQLException {
+		if( !running ) return;
+		try {
+			flush();
+		} finally {
+			running = false;
+			try {
+				flusher.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	private void checkFailure() throws SQLException {
+		synchronized (lock) {
+			if( failure != null )
+				throw new SQLException("Background flush failed", failure);
+		}
+	}
+
+	private void flushLoop() {
+		long written = 0;
+		int pendingBatches = 0;
+		try {
+			while( running || !queue.isEmpty() ) {
+				double[] vals = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if( vals != null ) {
+					int n = 0;
+					long bytes = 0;
+					do {
+						target.addBatchVec(vals);
+						n++;
+						bytes += vals.length * 8L;
+					} while( n < batchVectors && bytes < batchBytes && (vals = queue.poll()) != null );
+					target.executeBatch();
+					written += n;
+					pendingBatches++;
+				}
+
+				final boolean flushRequested;
+				synchronized (lock) {
+					flushRequested = flushTarget > committed && queue.isEmpty();
+				}
+				if( pendingBatches >= commitEvery || (pendingBatches > 0 && flushRequested) ) {
+					target.commit();
+					pendingBatches = 0;
+					synchronized (lock) {
+						committed = written;
+						lock.notifyAll();
+					}
+				}
+			}
+		} catch (SQLException sqlExc) {
+			synchronized (lock) {
+				failure = sqlExc;
+				lock.notifyAll();
+			}
+		} catch (InterruptedException ie) {
+			synchronized (lock) {
+				failure = new SQLException("Flusher interrupted", ie);
+				lock.notifyAll();
+			}
+		}
+	}
+}
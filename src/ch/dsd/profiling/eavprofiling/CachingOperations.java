@@ -0,0 +1,236 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read-through decorator that serves getVals from a VectorCache in front of
+ * any IDBOperations. Vectors are only ever appended, so inserts cannot make a
+ * cached vector stale; missing vectors (null results) are never cached. Ad hoc
+ * projections are cached per distinct attribute sequence. The
+ * cache is dropped whenever the table is (re)created or opened with a
+ * different projection. Range and full-table reads go straight to the
+ * delegate.
+ */
+public class CachingOperations implements IDBOperations {
+	private static final int DEFAULT_ATTR_SET = 0;
+
+	private final IDBOperations delegate;
+	private final int capacity;
+	private VectorCache cache;
+	private int[] attrs;
+	/* ids of the ad hoc projections seen so far; DEFAULT_ATTR_SET is the table's own */
+	private final HashMap<String, Integer> attrSets = new HashMap<String, Integer>();
+
+	public CachingOperations(IDBOperations delegate, int capacity) {
+		this.delegate = delegate;
+		this.capacity = capacity;
+	}
+
+	public IDBOperations getDelegate() {
+		return delegate;
+	}
+
+	public VectorCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName() + " (cached)";
+	}
+
+	/**
+	 * Wraps a copy of the delegate in a cache of its own.
+	 */
+	@Override
+	public IDBOperations copy() {
+		return new CachingOperations(delegate.copy(), capacity);
+	}
+
+	@Override
+	public void setConnection(Connection con) throws SQLException {
+		delegate.setConnection(con);
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		delegate.createTable(cols, attrs);
+		resetCache(cols, attrs);
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		delegate.openTable(cols, attrs);
+		resetCache(cols, attrs);
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		delegate.insertVec(vals);
+	}
+
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		delegate.bulkInsert(vecs);
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		delegate.bulkInsert(vecs);
+	}
+
+	@Override
+	public double[] getVals(int idx) throws SQLException {
+		final double[] res = new double[attrs.length];
+		if( cache.get(DEFAULT_ATTR_SET, idx, res) >= 0 ) {
+			return res;
+		}
+		final double[] vals = delegate.getVals(idx);
+		if( vals != null ) {
+			cache.put(DEFAULT_ATTR_SET, idx, vals);
+		}
+		return vals;
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final double[][] res = new double[ids.length][];
+		final int[] missing = new int[ids.length];
+		int nMissing = 0;
+		for( int i = 0; i < ids.length; i++ ) {
+			final double[] vals = new double[attrs.length];
+			if( cache.get(DEFAULT_ATTR_SET, ids[i], vals) >= 0 ) {
+				res[i] = vals;
+			} else {
+				missing[nMissing++] = i;
+			}
+		}
+		if( nMissing > 0 ) {
+			final int[] missingIds = new int[nMissing];
+			for( int i = 0; i < nMissing; i++ ) {
+				missingIds[i] = ids[missing[i]];
+			}
+			final List<double[]> fetched = delegate.getVals(missingIds);
+			for( int i = 0; i < nMissing; i++ ) {
+				final double[] vals = fetched.get(i);
+				res[missing[i]] = vals;
+				if( vals != null ) cache.put(DEFAULT_ATTR_SET, missingIds[i], vals);
+			}
+		}
+		return Arrays.asList(res);
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		final int attrSet = getAttrSet(attrs);
+		final double[] res = new double[attrs.length];
+		if( cache.get(attrSet, idx, res) >= 0 ) {
+			return res;
+		}
+		final double[] vals = delegate.getVals(idx, attrs);
+		if( vals != null ) {
+			cache.put(attrSet, idx, vals);
+		}
+		return vals;
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		return delegate.getRange(fromIdx, toIdx, attrs);
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		return delegate.select(attrs, filter);
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) throws SQLException {
+		delegate.createAttributeIndex(attr);
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		return delegate.aggregate(attrs, fromIdx, toIdx);
+	}
+
+	/**
+	 * Drops a single vector from the cache, e.g. after it has been changed
+	 * behind the decorator's back.
+	 */
+	public void invalidate(int idx) {
+		cache.invalidate(DEFAULT_ATTR_SET, idx);
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		return delegate.getRange(fromIdx, toIdx);
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return delegate.getFullTable();
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		return delegate.getRange(fromIdx, toIdx, block);
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return delegate.getFullTable(block);
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		delegate.forEachVector(fromIdx, toIdx, consumer);
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		delegate.forEachVector(consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		delegate.setFetchSize(rows);
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		return delegate.getMaxId();
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		delegate.commit();
+	}
+
+	@Override
+	public void dispose() throws SQLException {
+		delegate.dispose();
+	}
+
+	private int getAttrSet(int[] attrs) {
+		if( Arrays.equals(attrs, this.attrs) ) return DEFAULT_ATTR_SET;
+		final String key = Arrays.toString(attrs);
+		Integer id = attrSets.get(key);
+		if( id == null ) {
+			id = attrSets.size() + 1;
+			attrSets.put(key, id);
+		}
+		return id;
+	}
+
+	private void resetCache(int cols, int[] attrs) {
+		this.attrs = attrs;
+		attrSets.clear();
+		this.cache = new VectorCache(capacity, Math.max(cols, attrs.length));
+	}
+}
@@ -0,0 +1,157 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Runs the same read workloads once through the embedded driver and once
+ * through the ClientDriver against a Network Server on localhost, and prints
+ * both side by side. The tables are loaded in embedded mode; the database is
+ * then shut down and reopened by the server, so both runs read the same data.
+ * Pass "separatejvm" to run the server in its own process.
+ */
+public class ClientServerReport {
+
+	static final int tableSize = 100000;
+	static final int cols = Main.cols;
+	static final int[] attrs = Main.attrs;
+	static final int lookups = 5000;
+	static final int batchSize = 100;
+	static final int batches = 500;
+	static final int fullScans = 5;
+
+	private static final String dbName = ReportSupport.dbName;
+	private static final String user = ReportSupport.user;
+	private static final String SQL_STATE_DB_SHUTDOWN = "08006";
+
+	private enum Op { GET_VALS, MULTI_GET, GET_RANGE, FULL_TABLE }
+
+	private static LatencyHistogram[] newHistograms() {
+		final LatencyHistogram[] res = new LatencyHistogram[Op.values().length];
+		for( int i = 0; i < res.length; i++ ) {
+			res[i] = new LatencyHistogram();
+		}
+		return res;
+	}
+
+	private static void run(IDBOperations schema, LatencyHistogram[] hists) throws SQLException {
+		final Random rnd = new Random(7);
+		LatencyHistogram hist = hists[Op.GET_VALS.ordinal()];
+		for( int i = 0; i < lookups; i++ ) {
+			final int id = rnd.nextInt(tableSize);
+			hist.start();
+			schema.getVals(id);
+			hist.stop();
+		}
+		hist = hists[Op.MULTI_GET.ordinal()];
+		for( int i = 0; i < batches; i++ ) {
+			final int[] ids = new int[batchSize];
+			for( int j = 0; j < batchSize; j++ ) {
+				ids[j] = rnd.nextInt(tableSize);
+			}
+			hist.start();
+			schema.getVals(ids);
+			hist.stop();
+		}
+		hist = hists[Op.GET_RANGE.ordinal()];
+		for( int i = 0; i < batches; i++ ) {
+			final int from = rnd.nextInt(tableSize - batchSize);
+			hist.start();
+			schema.getRange(from, from + batchSize);
+			hist.stop();
+		}
+		hist = hists[Op.FULL_TABLE.ordinal()];
+		for( int i = 0; i < fullScans; i++ ) {
+			hist.start();
+			schema.getFullTable();
+			hist.stop();
+		}
+		schema.commit();
+	}
+
+	private static void printResults(String name, LatencyHistogram[] embedded, LatencyHistogram[] client) {
+		System.out.println("================");
+		System.out.println(name);
+		System.out.println("================");
+		for( Op op: Op.values() ) {
+			final LatencyHistogram e = embedded[op.ordinal()];
+			final LatencyHistogram c = client[op.ordinal()];
+			System.out.println(String.format(
+				"\t %-10s embedded avg: %.3f, p99: %.3f | client avg: %.3f, p99: %.3f [us] | client/embedded: %.2f",
+				op, e.getAverage() / 1000.0, e.getPercentile(99.0) / 1000.0,
+				c.getAverage() / 1000.0, c.getPercentile(99.0) / 1000.0,
+				e.getAverage() == 0 ? 0.0 : c.getAverage() / e.getAverage()));
+		}
+	}
+
+	public void go(String[] args) {
+		DerbyNetworkServer.Mode serverMode = DerbyNetworkServer.Mode.IN_PROCESS;
+		for( String arg: args ) {
+			if( arg.equalsIgnoreCase("separatejvm") ) serverMode = DerbyNetworkServer.Mode.SEPARATE_JVM;
+		}
+		final IDBOperations[] schemas = {new STDTable(), new EAVTable(), new BlobTable()};
+		final LatencyHistogram[][] embedded = new LatencyHistogram[schemas.length][];
+		final LatencyHistogram[][] client = new LatencyHistogram[schemas.length][];
+		DerbyNetworkServer server = null;
+		Connection con = null;
+		try {
+			ReportSupport.loadDriver();
+			con = ReportSupport.connections().newConnection();
+			final Random rnd = new Random(42);
+			final double[][] vecs = new double[tableSize][];
+			for( int i = 0; i < tableSize; i++ ) {
+				vecs[i] = ReportSupport.getRandomValues(rnd, cols);
+			}
+			for( int s = 0; s < schemas.length; s++ ) {
+				schemas[s].setConnection(con);
+				schemas[s].createTable(cols, attrs);
+				schemas[s].bulkInsert(vecs);
+				schemas[s].commit();
+				embedded[s] = newHistograms();
+				run(schemas[s], embedded[s]);
+				schemas[s].dispose();
+			}
+			con.close();
+			con = null;
+			/* hand the database over to the server */
+			try {
+				DriverManager.getConnection("jdbc:derby:" + dbName + ";shutdown=true");
+			} catch (SQLException se) {
+				if( !SQL_STATE_DB_SHUTDOWN.equals(se.getSQLState()) )
+					throw se;
+			}
+
+			server = new DerbyNetworkServer(serverMode, DerbyNetworkServer.DEFAULT_PORT);
+			server.start();
+			con = server.connections(dbName, user, user).newConnection();
+			for( int s = 0; s < schemas.length; s++ ) {
+				schemas[s].setConnection(con);
+				schemas[s].openTable(cols, attrs);
+				client[s] = newHistograms();
+				run(schemas[s], client[s]);
+				schemas[s].dispose();
+			}
+			for( int s = 0; s < schemas.length; s++ ) {
+				printResults(schemas[s].getName(), embedded[s], client[s]);
+			}
+		} catch (SQLException sqlExc) {
+			Main.printSQLException(sqlExc);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			ReportSupport.close(con);
+			try {
+				if( server != null ) server.stop();
+			} catch (SQLException sqlExc) {
+				sqlExc.printStackTrace(System.err);
+			}
+			ReportSupport.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		new ClientServerReport().go(args);
+	}
+}
@@ -0,0 +1,486 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Columnar layout: every attribute is stored on its own, in chunks of
+ * CHUNK_SIZE consecutive vectors encoded by a VectorCodec (little-endian
+ * doubles by default) into one VARCHAR FOR BIT DATA value keyed by
+ * (attribute_id, chunk_id). Reads fetch the chunks of the projected
+ * attributes only and decode them in bulk.
+ * Appends go to an in-memory tail chunk per attribute, which is written on
+ * commit or once it is full and overlays the stored tail for reads; a table
+ * therefore expects a single writing instance.
+ */
+public class ColumnarTable implements IDBOperations, IBatchInsert {
+	public static final String SQL_STATE_NOT_EXIST = "42Y55";
+	public static final String SQL_TABLE_NAME = "vectors_col";
+	/* VARCHAR FOR BIT DATA is limited to 32672 bytes */
+	public static final int CHUNK_SIZE = 2048;
+	private static final int MAX_DATA_SIZE = 32672;
+	private static final String SQL_DROP_TABLE = "DROP TABLE " + SQL_TABLE_NAME;
+	private static final String SQL_ATTR_NAME = "attribute_id";
+	private static final String SQL_CHUNK_NAME = "chunk_id";
+	private static final String SQL_DATA_NAME = "data";
+	private static final String SQL_CREATE_TABLE =
+		String.format("CREATE TABLE %s (%s SMALLINT NOT NULL, %s INT NOT NULL, %s VARCHAR(%%d) FOR BIT DATA, " +
+			"PRIMARY KEY (%s, %s))", SQL_TABLE_NAME, SQL_ATTR_NAME, SQL_CHUNK_NAME, SQL_DATA_NAME,
+			SQL_ATTR_NAME, SQL_CHUNK_NAME);
+	private static final String SQL_INSERT_INTO_VALUES =
+		String.format("INSERT INTO %s VALUES (?,?,?)", SQL_TABLE_NAME);
+	private static final String SQL_UPDATE_CHUNK =
+		String.format("UPDATE %s SET %s=? WHERE %s=? AND %s=?", SQL_TABLE_NAME, SQL_DATA_NAME, SQL_ATTR_NAME,
+			SQL_CHUNK_NAME);
+	private static final String SQL_SELECT_CHUNKS =
+		String.format("SELECT %s, %s, %s FROM %s WHERE %s IN (%%s) AND %s>=? AND %s<=?", SQL_ATTR_NAME,
+			SQL_CHUNK_NAME, SQL_DATA_NAME, SQL_TABLE_NAME, SQL_ATTR_NAME, SQL_CHUNK_NAME, SQL_CHUNK_NAME);
+	private static final String SQL_SELECT_LAST_CHUNK =
+		String.format("SELECT %s, %s, %s FROM %s WHERE %s = (SELECT MAX(%s) FROM %s)", SQL_ATTR_NAME,
+			SQL_CHUNK_NAME, SQL_DATA_NAME, SQL_TABLE_NAME, SQL_CHUNK_NAME, SQL_CHUNK_NAME, SQL_TABLE_NAME);
+
+	private final VectorCodec codec;
+	private int cols;
+	private int[] attrs;
+	private Connection con;
+	private PreparedStatement psInsertChunk;
+	private PreparedStatement psUpdateChunk;
+	private final StatementCache projections = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+	private int fetchSize = 0;
+
+	/* number of vectors, including the ones only held in the tail */
+	private int count;
+	/* values of chunk tailChunk per attribute; only the first count % CHUNK_SIZE are used */
+	private double[][] tail;
+	private int tailChunk;
+	private boolean tailStored;
+	private boolean tailDirty;
+	private final double[] scratch = new double[CHUNK_SIZE];
+
+	public ColumnarTable() {
+		this(new RawCodec());
+	}
+
+	public ColumnarTable(VectorCodec codec) {
+		if( codec.maxEncodedSize(CHUNK_SIZE) > MAX_DATA_SIZE )
+			throw new IllegalArgumentException("Codec " + codec.getName() + " may exceed " + MAX_DATA_SIZE +
+				" bytes per chunk");
+		this.codec = codec;
+	}
+
+	public VectorCodec getCodec() {
+		return codec;
+	}
+
+	@Override
+	public String getName() {
+		if( codec instanceof RawCodec ) return this.getClass().getName();
+		return this.getClass().getName() + " (" + codec.getName() + ")";
+	}
+
+	/**
+	 * Uses the same codec; the copy sees the chunks flushed when it opens the table.
+	 */
+	@Override
+	public IDBOperations copy() {
+		return new ColumnarTable(codec);
+	}
+
+	@Override
+	public void setConnection(Connection con) throws SQLException {
+		this.con = con;
+		this.con.setAutoCommit(false);
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		final Statement s = con.createStatement();
+		try {
+			try {
+				s.execute(SQL_DROP_TABLE);
+				con.commit();
+			} catch (SQLException sqlExc) {
+				if( !SQL_STATE_NOT_EXIST.equals(sqlExc.getSQLState()) )
+					throw sqlExc;
+			}
+			s.execute(String.format(SQL_CREATE_TABLE, codec.maxEncodedSize(CHUNK_SIZE)));
+			con.commit();
+		} finally {
+			s.close();
+		}
+		prepareStatements();
+		resetTail(0, false);
+		count = 0;
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		prepareStatements();
+		resetTail(0, false);
+		count = 0;
+		/* continue after the last, possibly partial chunk */
+		final Statement s = con.createStatement();
+		try {
+			int lastChunk = -1;
+			int n = 0;
+			final ResultSet rs = s.executeQuery(SQL_SELECT_LAST_CHUNK);
+			while( rs.next() ) {
+				lastChunk = rs.getInt(2);
+				n = codec.decode(rs.getBytes(3), tail[rs.getInt(1)]);
+			}
+			rs.close();
+			if( lastChunk < 0 ) return;
+			if( n == CHUNK_SIZE ) {
+				resetTail(lastChunk + 1, false);
+			} else {
+				tailChunk = lastChunk;
+				tailStored = true;
+			}
+			count = lastChunk * CHUNK_SIZE + n;
+		} finally {
+			s.close();
+		}
+	}
+
+	private void resetTail(int chunk, boolean stored) {
+		if( tail == null || tail.length != cols ) {
+			tail = new double[cols][CHUNK_SIZE];
+		}
+		tailChunk = chunk;
+		tailStored = stored;
+		tailDirty = false;
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		addBatchVec(vals);
+	}
+
+	@Override
+	public void addBatchVec(double[] vals) throws SQLException {
+		final int off = count - tailChunk * CHUNK_SIZE;
+		for( int i = 0; i < cols; i++ ) {
+			tail[i][off] = vals[i];
+		}
+		count++;
+		tailDirty = true;
+		if( off + 1 == CHUNK_SIZE ) {
+			flushTail();
+			resetTail(tailChunk + 1, false);
+		}
+	}
+
+	@Override
+	public void executeBatch() {
+		/* the tail is written on commit */
+	}
+
+	/**
+	 * Writes the tail chunk of every attribute, updating the rows written by a
+	 * previous flush of the same chunk.
+	 */
+	private void flushTail() throws SQLException {
+		if( !tailDirty ) return;
+		final int n = count - tailChunk * CHUNK_SIZE;
+		final PreparedStatement ps = tailStored ? psUpdateChunk : psInsertChunk;
+		for( int i = 0; i < cols; i++ ) {
+			final byte[] data = codec.encode(tail[i], n);
+			if( tailStored ) {
+				ps.setBytes(1, data);
+				ps.setShort(2, (short) i);
+				ps.setInt(3, tailChunk);
+			} else {
+				ps.setShort(1, (short) i);
+				ps.setInt(2, tailChunk);
+				ps.setBytes(3, data);
+			}
+			ps.addBatch();
+		}
+		ps.executeBatch();
+		tailStored = true;
+		tailDirty = false;
+	}
+
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		/* whole chunks are written as they fill up, so the table is never rewritten */
+		while( vecs.hasNext() ) {
+			addBatchVec(vecs.next());
+		}
+		flushTail();
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	@Override
+	public double[] getVals(int idx) throws SQLException {
+		return getVals(idx, attrs);
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		/* every chunk holding a requested id is fetched once */
+		final double[][] res = new double[ids.length][];
+		final int[] order = sortedByChunk(ids);
+		final VectorBlock block = new VectorBlock();
+		int k = 0;
+		while( k < order.length ) {
+			final int chunk = ids[order[k]] / CHUNK_SIZE;
+			if( ids[order[k]] < 0 || ids[order[k]] >= count ) {
+				k++;
+				continue;
+			}
+			final int from = chunk * CHUNK_SIZE;
+			readColumns(from, Math.min(count, from + CHUNK_SIZE), attrs, block);
+			for( ; k < order.length && ids[order[k]] / CHUNK_SIZE == chunk; k++ ) {
+				final int id = ids[order[k]];
+				if( id >= 0 && id < count ) res[order[k]] = block.getRow(id - from);
+			}
+		}
+		return Arrays.asList(res);
+	}
+
+	private static int[] sortedByChunk(int[] ids) {
+		final long[] keyed = new long[ids.length];
+		for( int i = 0; i < ids.length; i++ ) {
+			keyed[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(keyed);
+		final int[] order = new int[ids.length];
+		for( int i = 0; i < ids.length; i++ ) {
+			order[i] = (int) keyed[i];
+		}
+		return order;
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		return getRange(fromIdx, toIdx, attrs);
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return getRange(0, count, attrs);
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		if( idx < 0 || idx >= count ) return null;
+		final VectorBlock block = readColumns(idx, idx + 1, attrs, null);
+		return block.getRow(0);
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		final VectorBlock block = readColumns(fromIdx, toIdx, attrs, null);
+		final ArrayList<double[]> res = new ArrayList<double[]>(block.getRows());
+		for( int r = 0; r < block.getRows(); r++ ) {
+			res.add(block.getRow(r));
+		}
+		return res;
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		/* chunks cannot be filtered by Derby; fetch the needed columns and filter here */
+		final int[] all = Arrays.copyOf(attrs, attrs.length + filter.size());
+		for( int t = 0; t < filter.size(); t++ ) {
+			all[attrs.length + t] = filter.getAttr(t);
+		}
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final VectorBlock block = new VectorBlock();
+		for( int from = 0; from < count; from += CHUNK_SIZE ) {
+			readColumns(from, from + CHUNK_SIZE, all, block);
+			final double[] data = block.getData();
+			for( int r = 0; r < block.getRows(); r++ ) {
+				final int off = r * all.length;
+				boolean match = true;
+				for( int t = 0; t < filter.size() && match; t++ ) {
+					match = filter.accepts(t, data[off + attrs.length + t]);
+				}
+				if( match ) res.add(Arrays.copyOfRange(data, off, off + attrs.length));
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) {
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		final AttributeStats res = new AttributeStats(attrs);
+		final VectorBlock block = new VectorBlock();
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(count, toIdx);
+		for( int c = from; c < to; c = (c / CHUNK_SIZE + 1) * CHUNK_SIZE ) {
+			readColumns(c, Math.min(to, (c / CHUNK_SIZE + 1) * CHUNK_SIZE), attrs, block);
+			final double[] data = block.getData();
+			for( int r = 0; r < block.getRows(); r++ ) {
+				for( int i = 0; i < attrs.length; i++ ) {
+					res.add(i, data[r * attrs.length + i]);
+				}
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		return readColumns(fromIdx, toIdx, attrs, block);
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return readColumns(0, count, attrs, block);
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		/* one chunk at a time keeps memory use independent of the range */
+		final VectorBlock block = new VectorBlock();
+		final double[] vals = new double[attrs.length];
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(count, toIdx);
+		for( int c = from; c < to; c = (c / CHUNK_SIZE + 1) * CHUNK_SIZE ) {
+			readColumns(c, Math.min(to, (c / CHUNK_SIZE + 1) * CHUNK_SIZE), attrs, block);
+			for( int r = 0; r < block.getRows(); r++ ) {
+				System.arraycopy(block.getData(), r * attrs.length, vals, 0, attrs.length);
+				consumer.accept(vals);
+			}
+		}
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		forEachVector(0, count, consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) {
+		/* rows are chunks here, so the hint is passed on as is */
+		this.fetchSize = rows;
+	}
+
+	/**
+	 * Reads [fromIdx, toIdx) of the given attributes into block (or a new one
+	 * if null): stored chunks are fetched and decoded in bulk, the tail chunk
+	 * is copied from memory.
+	 */
+	private VectorBlock readColumns(int fromIdx, int toIdx, int[] attrs, VectorBlock block) throws SQLException {
+		final VectorBlock res = VectorBlock.reuse(block, attrs.length);
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(count, toIdx);
+		if( from >= to ) return res;
+		final int rows = to - from;
+		res.ensureRowCapacity(rows);
+		for( int r = 0; r < rows; r++ ) {
+			res.addRow();
+		}
+		final double[] out = res.getData();
+		final int firstChunk = from / CHUNK_SIZE;
+		final int lastChunk = (to - 1) / CHUNK_SIZE;
+		final int lastStored = Math.min(lastChunk, tailChunk - 1);
+		if( firstChunk <= lastStored ) {
+			final PreparedStatement ps = getChunkStatement(attrs);
+			ps.setInt(1, firstChunk);
+			ps.setInt(2, lastStored);
+			final ResultSet rs = ps.executeQuery();
+			try {
+				while( rs.next() ) {
+					final int attr = rs.getInt(1);
+					final int chunk = rs.getInt(2);
+					final int n = codec.decode(rs.getBytes(3), scratch);
+					scatter(scratch, n, chunk, attr, attrs, from, to, out);
+				}
+			} finally {
+				rs.close();
+			}
+		}
+		if( lastChunk >= tailChunk ) {
+			final int n = count - tailChunk * CHUNK_SIZE;
+			for( int i = 0; i < attrs.length; i++ ) {
+				scatter(tail[attrs[i]], n, tailChunk, attrs[i], attrs, from, to, out);
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Copies the values of one chunk of attr that fall into [from, to) to every
+	 * column of out projecting attr.
+	 */
+	private static void scatter(double[] chunkVals, int n, int chunk, int attr, int[] attrs, int from, int to,
+		double[] out) {
+		final int base = chunk * CHUNK_SIZE;
+		final int lo = Math.max(from, base);
+		final int hi = Math.min(to, base + n);
+		final int stride = attrs.length;
+		for( int i = 0; i < stride; i++ ) {
+			if( attrs[i] != attr ) continue;
+			int off = (lo - from) * stride + i;
+			for( int id = lo; id < hi; id++, off += stride ) {
+				out[off] = chunkVals[id - base];
+			}
+		}
+	}
+
+	private PreparedStatement getChunkStatement(int[] attrs) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("chunks", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			final StringBuilder sb = new StringBuilder();
+			for( int i = 0; i < canon.length; i++ ) {
+				if( i > 0 ) sb.append(",");
+				sb.append(canon[i]);
+			}
+			ps = projections.prepare(con, key, String.format(SQL_SELECT_CHUNKS, sb));
+			ps.setFetchSize(fetchSize);
+		}
+		return ps;
+	}
+
+	@Override
+	public int getMaxId() {
+		return count - 1;
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		flushTail();
+		con.commit();
+	}
+
+	@Override
+	public void dispose() throws SQLException {
+		closePrepStatements();
+	}
+
+	private void closePrepStatements() throws SQLException {
+		PreparedStatement[] psArray = {psInsertChunk, psUpdateChunk};
+		for( PreparedStatement ps: psArray ) {
+			if( ps != null && !ps.isClosed() ) {
+				ps.close();
+			}
+		}
+		projections.clear();
+	}
+
+	private void prepareStatements() throws SQLException {
+		closePrepStatements();
+		psInsertChunk = con.prepareStatement(SQL_INSERT_INTO_VALUES);
+		psUpdateChunk = con.prepareStatement(SQL_UPDATE_CHUNK);
+	}
+}
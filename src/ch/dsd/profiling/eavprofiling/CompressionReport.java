@@ -0,0 +1,160 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Compression ratio, encode/decode throughput and full scan time of
+ * ColumnarTable for every VectorCodec, on uniform random vectors and on
+ * smooth, low-precision ones (a random walk per attribute, rounded to three
+ * decimals). Throughput is in MB of raw doubles per second; scan times are
+ * given relative to the uncompressed layout.
+ */
+public class CompressionReport {
+
+	static final int tableSize = 200000;
+	static final int cols = Main.cols;
+	static final int[] attrs = Main.attrs;
+	static final int codecRounds = 20;
+	static final int scans = 5;
+
+	private final ConnectionFactory connections = ReportSupport.connections();
+
+	private static VectorCodec[] newCodecs() {
+		return new VectorCodec[] {new RawCodec(), new XorCodec(), new Float32Codec(),
+			new QuantizingCodec(5e-4), new QuantizingCodec(5e-7)};
+	}
+
+	private static double[][] randomVectors(Random rnd) {
+		final double[][] res = new double[tableSize][cols];
+		for( double[] vals: res ) {
+			for( int j = 0; j < cols; j++ ) {
+				vals[j] = rnd.nextDouble();
+			}
+		}
+		return res;
+	}
+
+	private static double[][] smoothVectors(Random rnd) {
+		final double[][] res = new double[tableSize][cols];
+		for( int j = 0; j < cols; j++ ) {
+			double v = rnd.nextDouble();
+			for( int i = 0; i < tableSize; i++ ) {
+				v += rnd.nextGaussian() * 0.01;
+				res[i][j] = Math.round(v * 1000.0) / 1000.0;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Encodes and decodes every attribute in chunks of ColumnarTable.CHUNK_SIZE
+	 * values, as the table stores them.
+	 */
+	private static void reportCodec(VectorCodec codec, double[][] vecs) {
+		final int chunks = (tableSize + ColumnarTable.CHUNK_SIZE - 1) / ColumnarTable.CHUNK_SIZE;
+		final byte[][][] encoded = new byte[cols][chunks][];
+		final double[] column = new double[ColumnarTable.CHUNK_SIZE];
+		final double[] decoded = new double[ColumnarTable.CHUNK_SIZE];
+		long encodeNanos = 0;
+		long decodeNanos = 0;
+		long bytes = 0;
+		double maxError = 0.0;
+		for( int round = 0; round < codecRounds; round++ ) {
+			for( int j = 0; j < cols; j++ ) {
+				for( int c = 0; c < chunks; c++ ) {
+					final int from = c * ColumnarTable.CHUNK_SIZE;
+					final int n = Math.min(ColumnarTable.CHUNK_SIZE, tableSize - from);
+					for( int i = 0; i < n; i++ ) {
+						column[i] = vecs[from + i][j];
+					}
+					final long start = System.nanoTime();
+					encoded[j][c] = codec.encode(column, n);
+					encodeNanos += System.nanoTime() - start;
+				}
+			}
+			for( int j = 0; j < cols; j++ ) {
+				for( int c = 0; c < chunks; c++ ) {
+					final long start = System.nanoTime();
+					final int n = codec.decode(encoded[j][c], decoded);
+					decodeNanos += System.nanoTime() - start;
+					if( round == 0 ) {
+						bytes += encoded[j][c].length;
+						for( int i = 0; i < n; i++ ) {
+							maxError = Math.max(maxError,
+								Math.abs(decoded[i] - vecs[c * ColumnarTable.CHUNK_SIZE + i][j]));
+						}
+					}
+				}
+			}
+		}
+		final double rawMB = (double) tableSize * cols * 8 / 1048576.0;
+		System.out.println(String.format(
+			"\t %-10s ratio: %.2f, encode: %.1f MB/s, decode: %.1f MB/s, max error: %.3g",
+			codec.getName(), rawMB * 1048576.0 / bytes, rawMB * codecRounds / (encodeNanos / 1e9),
+			rawMB * codecRounds / (decodeNanos / 1e9), maxError));
+	}
+
+	/**
+	 * @return average full scan time in ms
+	 */
+	private static double reportScan(Connection con, VectorCodec codec, double[][] vecs) throws SQLException {
+		final ColumnarTable schema = new ColumnarTable(codec);
+		schema.setConnection(con);
+		schema.createTable(cols, attrs);
+		schema.bulkInsert(vecs);
+		schema.commit();
+		final long[] bytes = DerbyDiag.getAllocatedBytes(con, ColumnarTable.SQL_TABLE_NAME);
+		VectorBlock block = schema.getFullTable((VectorBlock) null);
+		final long start = System.nanoTime();
+		for( int i = 0; i < scans; i++ ) {
+			block = schema.getFullTable(block);
+		}
+		final double millis = (System.nanoTime() - start) / 1e6 / scans;
+		schema.commit();
+		schema.dispose();
+		System.out.println(String.format("\t %-10s table: %.1f MB, getFullTable: %.1f ms",
+			codec.getName(), bytes[0] / 1048576.0, millis));
+		return millis;
+	}
+
+	public void go(String[] args) {
+		Connection con = null;
+		try {
+			ReportSupport.loadDriver();
+			con = connections.newConnection();
+			final String[] kinds = {"random", "smooth"};
+			for( String kind: kinds ) {
+				final Random rnd = new Random(42);
+				final double[][] vecs = kind.equals("random") ? randomVectors(rnd) : smoothVectors(rnd);
+				System.out.println("================");
+				System.out.println(kind + " vectors");
+				System.out.println("================");
+				for( VectorCodec codec: newCodecs() ) {
+					reportCodec(codec, vecs);
+				}
+				final VectorCodec[] codecs = newCodecs();
+				final double[] millis = new double[codecs.length];
+				for( int i = 0; i < codecs.length; i++ ) {
+					millis[i] = reportScan(con, codecs[i], vecs);
+				}
+				for( int i = 1; i < codecs.length; i++ ) {
+					System.out.println(String.format("\t %-10s scan time vs %s: %+.1f%%",
+						codecs[i].getName(), codecs[0].getName(), (millis[i] / millis[0] - 1.0) * 100.0));
+				}
+			}
+		} catch (SQLException sqlExc) {
+			Main.printSQLException(sqlExc);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			ReportSupport.close(con);
+			ReportSupport.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		new CompressionReport().go(args);
+	}
+}
@@ -0,0 +1,250 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Multi-threaded workload driver. For every layout the table is created and
+ * filled once, then the driver sweeps over threadCounts: each worker thread
+ * opens its own connection and its own IDBOperations instance and runs a
+ * random read/write/scan mix for a fixed duration. Aggregate throughput and
+ * per-operation latency percentiles are reported per thread count, together
+ * with the number of deadlocks and lock timeouts Derby reported.
+ */
+public class ConcurrentDriver {
+
+	static final int[] threadCounts = {1, 2, 4, 8, 16, 32};
+	static final int tableSize = 100000;
+	static final int cols = Main.cols;
+	static final int[] attrs = Main.attrs;
+	static final int scanSize = 100;
+	static final long durationMillis = 10000;
+	/* operation mix in percent; the remainder is scans */
+	static final int readPct = 80;
+	static final int writePct = 10;
+	static final int commitEvery = 10;
+
+	private static final String SQL_STATE_DEADLOCK = "40001";
+	private static final String SQL_STATE_LOCK_TIMEOUT = "40XL1";
+
+	private final ConnectionFactory connections = ReportSupport.connections();
+
+	private enum Op { READ, WRITE, SCAN }
+
+	/**
+	 * Per-thread results; merged after the workers have been joined.
+	 */
+	private static class WorkerStats {
+		final LatencyHistogram[] latencies = new LatencyHistogram[Op.values().length];
+		long ops = 0;
+		long conflicts = 0;
+		/* measured window; merged stats span from the first start to the last end */
+		long startNanos = Long.MAX_VALUE;
+		long endNanos = Long.MIN_VALUE;
+		SQLException failure = null;
+
+		WorkerStats() {
+			for( int i = 0; i < latencies.length; i++ ) {
+				latencies[i] = new LatencyHistogram();
+			}
+		}
+
+		void merge(WorkerStats other) {
+			for( int i = 0; i < latencies.length; i++ ) {
+				latencies[i].merge(other.latencies[i]);
+			}
+			ops += other.ops;
+			conflicts += other.conflicts;
+			startNanos = Math.min(startNanos, other.startNanos);
+			endNanos = Math.max(endNanos, other.endNanos);
+		}
+
+		double getElapsedSeconds() {
+			return endNanos > startNanos ? (endNanos - startNanos) / 1e9 : 0.0;
+		}
+	}
+
+	private class Worker implements Runnable {
+		private final IDBOperations prototype;
+		private final CountDownLatch readySignal;
+		private final CountDownLatch startSignal;
+		private final long seed;
+		final WorkerStats stats = new WorkerStats();
+
+		Worker(IDBOperations prototype, CountDownLatch readySignal, CountDownLatch startSignal, long seed) {
+			this.prototype = prototype;
+			this.readySignal = readySignal;
+			this.startSignal = startSignal;
+			this.seed = seed;
+		}
+
+		@Override
+		public void run() {
+			final Random rnd = new Random(seed);
+			Connection con = null;
+			IDBOperations schema = null;
+			try {
+				try {
+					con = connections.newConnection();
+					schema = prototype.copy();
+					schema.setConnection(con);
+					schema.openTable(cols, attrs);
+				} finally {
+					/* also on failure, runWorkers must not wait for a worker that never gets ready */
+					readySignal.countDown();
+				}
+				startSignal.await();
+
+				stats.startNanos = System.nanoTime();
+				final long deadline = stats.startNanos + durationMillis * 1000000L;
+				int uncommitted = 0;
+				while( System.nanoTime() < deadline ) {
+					final int p = rnd.nextInt(100);
+					final Op op = p < readPct ? Op.READ : (p < readPct + writePct ? Op.WRITE : Op.SCAN);
+					final LatencyHistogram hist = stats.latencies[op.ordinal()];
+					try {
+						switch (op) {
+							case READ: {
+								final int id = rnd.nextInt(tableSize);
+								hist.start();
+								schema.getVals(id);
+								hist.stop();
+								break;
+							}
+							case WRITE: {
+								final double[] vec = ReportSupport.getRandomValues(rnd, cols);
+								hist.start();
+								schema.insertVec(vec);
+								if( ++uncommitted >= commitEvery ) {
+									schema.commit();
+									uncommitted = 0;
+								}
+								hist.stop();
+								break;
+							}
+							case SCAN: {
+								final int from = rnd.nextInt(Math.max(1, tableSize - scanSize));
+								hist.start();
+								schema.getRange(from, from + scanSize);
+								hist.stop();
+								break;
+							}
+						}
+						stats.ops++;
+					} catch (SQLException sqlExc) {
+						if( !SQL_STATE_DEADLOCK.equals(sqlExc.getSQLState()) &&
+							!SQL_STATE_LOCK_TIMEOUT.equals(sqlExc.getSQLState()) )
+							throw sqlExc;
+						/* the transaction has been rolled back, carry on */
+						stats.conflicts++;
+						con.rollback();
+						uncommitted = 0;
+					}
+				}
+				stats.endNanos = System.nanoTime();
+				schema.commit();
+			} catch (SQLException sqlExc) {
+				stats.failure = sqlExc;
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			} finally {
+				try {
+					if( schema != null ) schema.dispose();
+					if( con != null ) con.close();
+				} catch (SQLException sqlExc) {
+					sqlExc.printStackTrace(System.err);
+				}
+			}
+		}
+	}
+
+	private WorkerStats runWorkers(IDBOperations prototype, int threads) throws SQLException {
+		final CountDownLatch readySignal = new CountDownLatch(threads);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final Worker[] workers = new Worker[threads];
+		final Thread[] handles = new Thread[threads];
+		for( int t = 0; t < threads; t++ ) {
+			workers[t] = new Worker(prototype, readySignal, startSignal, 31L * threads + t);
+			handles[t] = new Thread(workers[t], "worker-" + t);
+			handles[t].start();
+		}
+		/* release the workers together, once all of them have connected and opened the table */
+		try {
+			readySignal.await();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for workers", ie);
+		} finally {
+			startSignal.countDown();
+		}
+
+		final WorkerStats total = new WorkerStats();
+		for( int t = 0; t < threads; t++ ) {
+			try {
+				handles[t].join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for workers", ie);
+			}
+			if( workers[t].stats.failure != null )
+				throw workers[t].stats.failure;
+			total.merge(workers[t].stats);
+		}
+		return total;
+	}
+
+	private void printResults(int threads, WorkerStats stats) {
+		System.out.println(String.format("\tthreads: %d, ops/s: %.1f, conflicts: %d",
+			threads, stats.ops / stats.getElapsedSeconds(), stats.conflicts));
+		for( Op op: Op.values() ) {
+			final LatencyHistogram hist = stats.latencies[op.ordinal()];
+			System.out.println(String.format(
+				"\t\t %s n: %d, avg: %.3f, p50: %.3f, p90: %.3f, p99: %.3f, p99.9: %.3f, max: %.3f [us]",
+				op, hist.getCount(), hist.getAverage() / 1000.0,
+				hist.getPercentile(50.0) / 1000.0, hist.getPercentile(90.0) / 1000.0,
+				hist.getPercentile(99.0) / 1000.0, hist.getPercentile(99.9) / 1000.0, hist.getMax() / 1000.0
+			));
+		}
+	}
+
+	public void go(String[] args) {
+		IDBOperations[] schemas = {new STDTable(), new EAVTable(), new BlobTable()};
+		Connection con = null;
+		try {
+			ReportSupport.loadDriver();
+			con = connections.newConnection();
+			for( IDBOperations schema: schemas ) {
+				System.out.println("================");
+				System.out.println(schema.getName());
+				System.out.println("================");
+				schema.setConnection(con);
+				schema.createTable(cols, attrs);
+				final Random rnd = new Random(42);
+				final double[][] vecs = new double[tableSize][];
+				for( int i = 0; i < tableSize; i++ ) {
+					vecs[i] = ReportSupport.getRandomValues(rnd, cols);
+				}
+				schema.bulkInsert(vecs);
+				schema.commit();
+
+				for( int threads: threadCounts ) {
+					printResults(threads, runWorkers(schema, threads));
+				}
+				schema.dispose();
+			}
+		} catch (SQLException sqlExc) {
+			Main.printSQLException(sqlExc);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			ReportSupport.close(con);
+			ReportSupport.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		new ConcurrentDriver().go(args);
+	}
+}
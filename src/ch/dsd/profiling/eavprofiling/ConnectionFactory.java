@@ -0,0 +1,13 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Source of new connections for components that need more than the one
+ * connection handed to setConnection.
+ */
+public interface ConnectionFactory {
+
+	public Connection newConnection() throws SQLException;
+}
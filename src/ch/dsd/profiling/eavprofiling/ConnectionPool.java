@@ -0,0 +1,308 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of connections, each leased together with its own instance of
+ * a layout that has been opened on it, so the instance's prepared statements
+ * live as long as the connection. The instances are copies of the prototype
+ * and keep its configuration. A lease is used by one thread at a time,
+ * which is what makes layouts that are not thread-safe themselves (STDTable,
+ * EAVTable, BlobTable) usable from many threads. Layouts holding table state
+ * in memory (ColumnarTable's tail, MmapVectorStore) cannot be pooled.
+ *
+ * Connections are created on demand up to maxSize; a connection that sat idle
+ * for longer than the validation interval is checked with isValid before it
+ * is leased again and replaced if it fails.
+ */
+public class ConnectionPool {
+	public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 5000;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+	/* SQLState class of connection exceptions */
+	private static final String SQL_STATE_CLASS_CONNECTION = "08";
+
+	/**
+	 * A connection and the layout instance bound to it, held by one thread
+	 * between acquire() and release().
+	 */
+	public static class Lease {
+		private final Connection con;
+		private final IDBOperations schema;
+		private long lastUsed;
+		private boolean broken = false;
+
+		Lease(Connection con, IDBOperations schema) {
+			this.con = con;
+			this.schema = schema;
+			this.lastUsed = System.nanoTime();
+		}
+
+		public Connection getConnection() {
+			return con;
+		}
+
+		public IDBOperations getOperations() {
+			return schema;
+		}
+
+		/* Marks the connection as unusable; release() closes it instead of pooling it. */
+		public void invalidate() {
+			broken = true;
+		}
+
+		/**
+		 * Invalidates the lease if the exception means the connection is gone.
+		 */
+		public void checkFailure(SQLException sqlExc) {
+			final String state = sqlExc.getSQLState();
+			if( state != null && state.startsWith(SQL_STATE_CLASS_CONNECTION) ) broken = true;
+		}
+	}
+
+	private final IDBOperations prototype;
+	private final ConnectionFactory connections;
+	private final int maxSize;
+	private final long maxWaitMillis;
+	private final long validationIntervalNanos;
+
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<Lease> idle = new LinkedBlockingDeque<Lease>();
+	private volatile int cols;
+	private volatile int[] attrs;
+	private volatile boolean closed = true;
+
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong acquires = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final LatencyHistogram waitTimes = new LatencyHistogram();
+
+	public ConnectionPool(IDBOperations prototype, ConnectionFactory connections, int maxSize, long maxWaitMillis) {
+		this(prototype, connections, maxSize, maxWaitMillis, DEFAULT_VALIDATION_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * @param maxWaitMillis how long acquire() waits for a free connection before it fails
+	 */
+	public ConnectionPool(IDBOperations prototype, ConnectionFactory connections, int maxSize, long maxWaitMillis,
+		long validationIntervalMillis) {
+		if( maxSize < 1 )
+			throw new IllegalArgumentException("Need at least one connection");
+		this.prototype = prototype;
+		this.connections = connections;
+		this.maxSize = maxSize;
+		this.maxWaitMillis = maxWaitMillis;
+		this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	public IDBOperations getPrototype() {
+		return prototype;
+	}
+
+	/**
+	 * Attaches the pool to an existing table; one connection is opened right
+	 * away so configuration errors show up here.
+	 */
+	public void open(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		closed = false;
+		release(acquire());
+	}
+
+	/**
+	 * (Re)creates the table through a pooled connection. Connections opened on
+	 * the previous table are closed; none of them may be leased.
+	 */
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		closed = false;
+		discardIdle();
+		permits.acquireUninterruptibly();
+		final Lease lease;
+		try {
+			lease = newLease(true);
+		} catch (SQLException sqlExc) {
+			permits.release();
+			throw sqlExc;
+		}
+		release(lease);
+	}
+
+	/**
+	 * Leases a connection, waiting up to maxWaitMillis for one to be released.
+	 */
+	public Lease acquire() throws SQLException {
+		if( closed )
+			throw new SQLException("Connection pool is closed");
+		final long start = System.nanoTime();
+		try {
+			if( !permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS) ) {
+				timeouts.incrementAndGet();
+				throw new SQLException("No connection available within " + maxWaitMillis + " ms (" +
+					maxSize + " in use)");
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", ie);
+		}
+		synchronized( waitTimes ) {
+			waitTimes.record(System.nanoTime() - start);
+		}
+		acquires.incrementAndGet();
+		try {
+			Lease lease;
+			while( (lease = idle.pollFirst()) != null ) {
+				if( isUsable(lease) ) return lease;
+				destroy(lease);
+			}
+			return newLease(false);
+		} catch (SQLException sqlExc) {
+			permits.release();
+			throw sqlExc;
+		} catch (RuntimeException re) {
+			permits.release();
+			throw re;
+		}
+	}
+
+	/**
+	 * Returns a lease to the pool. Uncommitted work is rolled back; broken
+	 * connections, and any connection released after close(), are closed.
+	 */
+	public void release(Lease lease) {
+		try {
+			if( !lease.broken && !closed ) {
+				try {
+					lease.con.rollback();
+					lease.lastUsed = System.nanoTime();
+					idle.offerFirst(lease);
+					return;
+				} catch (SQLException sqlExc) {
+					lease.broken = true;
+				}
+			}
+			destroy(lease);
+		} finally {
+			permits.release();
+		}
+	}
+
+	private boolean isUsable(Lease lease) {
+		if( System.nanoTime() - lease.lastUsed < validationIntervalNanos ) return true;
+		try {
+			return lease.con.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException sqlExc) {
+			return false;
+		}
+	}
+
+	private Lease newLease(boolean create) throws SQLException {
+		final Connection con = connections.newConnection();
+		try {
+			final IDBOperations schema = prototype.copy();
+			schema.setConnection(con);
+			if( create ) {
+				schema.createTable(cols, attrs);
+				schema.commit();
+			} else {
+				schema.openTable(cols, attrs);
+			}
+			size.incrementAndGet();
+			created.incrementAndGet();
+			return new Lease(con, schema);
+		} catch (SQLException sqlExc) {
+			con.close();
+			throw sqlExc;
+		}
+	}
+
+	private void destroy(Lease lease) {
+		size.decrementAndGet();
+		discarded.incrementAndGet();
+		try {
+			lease.schema.dispose();
+		} catch (SQLException sqlExc) {
+			/* the connection is closed below anyway */
+		}
+		try {
+			lease.con.close();
+		} catch (SQLException sqlExc) {
+			sqlExc.printStackTrace(System.err);
+		}
+	}
+
+	private void discardIdle() {
+		Lease lease;
+		while( (lease = idle.pollFirst()) != null ) {
+			destroy(lease);
+		}
+	}
+
+	/**
+	 * Closes the idle connections; leased ones are closed when released.
+	 */
+	public void close() {
+		closed = true;
+		discardIdle();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/* Open connections, leased or idle. */
+	public int getSize() {
+		return size.get();
+	}
+
+	public int getIdle() {
+		return idle.size();
+	}
+
+	public int getInUse() {
+		return maxSize - permits.availablePermits();
+	}
+
+	/* Threads blocked in acquire(). */
+	public int getWaiting() {
+		return permits.getQueueLength();
+	}
+
+	public long getAcquires() {
+		return acquires.get();
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	public long getCreated() {
+		return created.get();
+	}
+
+	/* Connections closed because they failed validation, broke or outlived the pool. */
+	public long getDiscarded() {
+		return discarded.get();
+	}
+
+	/**
+	 * @return a copy of the acquire() wait times so far
+	 */
+	public LatencyHistogram getWaitTimes() {
+		final LatencyHistogram res = new LatencyHistogram();
+		synchronized( waitTimes ) {
+			res.merge(waitTimes);
+		}
+		return res;
+	}
+}
@@ -0,0 +1,44 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Opens connections to the benchmark database with autocommit disabled, the
+ * same way Main connects.
+ */
+public class DerbyConnectionFactory implements ConnectionFactory {
+	private static final String protocol = "jdbc:derby:";
+
+	private final String url;
+	private final Properties props = new Properties();
+
+	/**
+	 * @param url full JDBC url of the database
+	 */
+	public DerbyConnectionFactory(String url, String user, String password) {
+		this.url = url;
+		props.put("user", user);
+		props.put("password", password);
+	}
+
+	/**
+	 * Factory for an embedded database in the working directory, created on demand.
+	 */
+	public static DerbyConnectionFactory embedded(String dbName, String user, String password) {
+		return new DerbyConnectionFactory(protocol + dbName + ";create=true", user, password);
+	}
+
+	@Override
+	public Connection newConnection() throws SQLException {
+		final Connection con = DriverManager.getConnection(url, props);
+		con.setAutoCommit(false);
+		return con;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+}
@@ -0,0 +1,41 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Storage figures from Derby's SYSCS_DIAG.SPACE_TABLE diagnostic table.
+ */
+public class DerbyDiag {
+	private static final String SQL_CURRENT_SCHEMA = "VALUES CURRENT SCHEMA";
+	private static final String SQL_SPACE_TABLE =
+		"SELECT ISINDEX, NUMALLOCATEDPAGES, PAGESIZE FROM TABLE (SYSCS_DIAG.SPACE_TABLE('%s', '%s')) T";
+
+	private DerbyDiag() {
+	}
+
+	/**
+	 * @param tableName table name as used in the DDL, e.g. STDTable.SQL_TABLE_NAME
+	 * @return allocated bytes of {base table, all its indexes}
+	 */
+	public static long[] getAllocatedBytes(Connection con, String tableName) throws SQLException {
+		final long[] res = new long[2];
+		final Statement s = con.createStatement();
+		try {
+			ResultSet rs = s.executeQuery(SQL_CURRENT_SCHEMA);
+			rs.next();
+			final String schema = rs.getString(1);
+			rs.close();
+			rs = s.executeQuery(String.format(SQL_SPACE_TABLE, schema, tableName.toUpperCase()));
+			while( rs.next() ) {
+				res[rs.getShort(1) != 0 ? 1 : 0] += rs.getLong(2) * rs.getLong(3);
+			}
+			rs.close();
+		} finally {
+			s.close();
+		}
+		return res;
+	}
+}
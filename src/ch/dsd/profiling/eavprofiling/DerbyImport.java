@@ -0,0 +1,110 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.io.*;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Helpers for loading rows through Derby's SYSCS_UTIL.SYSCS_IMPORT_DATA
+ * procedure. Rows are spooled into a temporary comma delimited file which is
+ * handed to the import procedure; into an empty table Derby then takes its
+ * bulk insert path instead of inserting row by row.
+ */
+class DerbyImport {
+	private static final String SQL_IMPORT_DATA =
+		"CALL SYSCS_UTIL.SYSCS_IMPORT_DATA (NULL, ?, ?, NULL, ?, NULL, NULL, 'UTF-8', 0)";
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final File file;
+	private final Writer writer;
+
+	DerbyImport() throws SQLException {
+		try {
+			file = File.createTempFile("derbyImport", ".del");
+			file.deleteOnExit();
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+				WRITE_BUFFER_SIZE);
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to create import file", ioExc);
+		}
+	}
+
+	void writeRow(double[] vals, int cols) throws SQLException {
+		try {
+			if( cols > 0 ) writer.write(Double.toString(vals[0]));
+			for( int i = 1; i < cols; i++ ) {
+				writer.write(',');
+				writer.write(Double.toString(vals[i]));
+			}
+			writer.write('\n');
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to write import file", ioExc);
+		}
+	}
+
+	void writeRow(int key, int attr, double val) throws SQLException {
+		try {
+			writer.write(Integer.toString(key));
+			writer.write(',');
+			writer.write(Integer.toString(attr));
+			writer.write(',');
+			writer.write(Double.toString(val));
+			writer.write('\n');
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to write import file", ioExc);
+		}
+	}
+
+	/**
+	 * Writes a key and a binary value; bit data is imported from hex strings.
+	 */
+	void writeRow(int key, byte[] data) throws SQLException {
+		try {
+			writer.write(Integer.toString(key));
+			writer.write(',');
+			for( byte b: data ) {
+				writer.write(HEX_DIGITS[(b >>> 4) & 0xf]);
+				writer.write(HEX_DIGITS[b & 0xf]);
+			}
+			writer.write('\n');
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to write import file", ioExc);
+		}
+	}
+
+	/**
+	 * Closes the spool file and imports it into the given table. The caller
+	 * is responsible for committing.
+	 *
+	 * @param tableName     table name as stored in the catalog (i.e. upper case)
+	 * @param insertColumns comma separated target columns, or null for all
+	 */
+	void load(Connection con, String tableName, String insertColumns) throws SQLException {
+		try {
+			writer.close();
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to close import file", ioExc);
+		}
+		final CallableStatement cs = con.prepareCall(SQL_IMPORT_DATA);
+		try {
+			cs.setString(1, tableName);
+			cs.setString(2, insertColumns);
+			cs.setString(3, file.getAbsolutePath());
+			cs.execute();
+		} finally {
+			cs.close();
+			dispose();
+		}
+	}
+
+	void dispose() {
+		try {
+			writer.close();
+		} catch (IOException ioExc) {
+			/* nothing left to flush */
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,153 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derby Network Server on the loopback interface, either inside this JVM or
+ * as a separate java process started with the same class path. The server
+ * classes (derbynet.jar) are only needed at run time and are reached through
+ * reflection; clients connect through the ClientDriver (derbyclient.jar).
+ */
+public class DerbyNetworkServer {
+	public static final int DEFAULT_PORT = 1527;
+	public static final String CLIENT_DRIVER = "org.apache.derby.jdbc.ClientDriver";
+	private static final String SERVER_CLASS = "org.apache.derby.drda.NetworkServerControl";
+	private static final String HOST = "localhost";
+	private static final long START_TIMEOUT_MILLIS = 30000;
+
+	public enum Mode { IN_PROCESS, SEPARATE_JVM }
+
+	private final Mode mode;
+	private final int port;
+	private Object control;
+	private Process process;
+
+	public DerbyNetworkServer(Mode mode, int port) {
+		this.mode = mode;
+		this.port = port;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Starts the server and waits until it answers a ping.
+	 */
+	public void start() throws SQLException {
+		try {
+			control = newControl();
+			if( mode == Mode.IN_PROCESS ) {
+				invoke("start", new Class<?>[] {PrintWriter.class}, new PrintWriter(System.out, true));
+			} else {
+				final List<String> cmd = new ArrayList<String>();
+				cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+				cmd.add("-cp");
+				cmd.add(System.getProperty("java.class.path"));
+				cmd.add("-Dderby.system.home=" + System.getProperty("derby.system.home", System.getProperty("user.dir")));
+				cmd.add(SERVER_CLASS);
+				cmd.add("start");
+				cmd.add("-h");
+				cmd.add(HOST);
+				cmd.add("-p");
+				cmd.add(Integer.toString(port));
+				process = new ProcessBuilder(cmd).redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+			}
+			awaitPing();
+		} catch (SQLException sqlExc) {
+			abandon();
+			throw sqlExc;
+		} catch (Exception e) {
+			abandon();
+			throw new SQLException("Unable to start the Derby Network Server on port " + port, e);
+		}
+	}
+
+	/* Kills a server process that did not come up, so it does not keep holding the port. */
+	private void abandon() {
+		if( process != null ) process.destroy();
+		control = null;
+		process = null;
+	}
+
+	/**
+	 * Shuts the server down; the databases it booted are shut down with it.
+	 */
+	public void stop() throws SQLException {
+		try {
+			if( control != null ) {
+				invoke("shutdown", new Class<?>[0]);
+			}
+			if( process != null ) {
+				process.waitFor();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while stopping the Derby Network Server", ie);
+		} catch (Exception e) {
+			throw new SQLException("Unable to stop the Derby Network Server on port " + port, e);
+		} finally {
+			if( process != null ) process.destroy();
+			control = null;
+			process = null;
+		}
+	}
+
+	/**
+	 * Loads the ClientDriver and returns a factory for the given database on
+	 * this server, created on demand.
+	 */
+	public DerbyConnectionFactory connections(String dbName, String user, String password) throws SQLException {
+		try {
+			Class.forName(CLIENT_DRIVER).newInstance();
+		} catch (Exception e) {
+			throw new SQLException("Unable to load the JDBC driver " + CLIENT_DRIVER, e);
+		}
+		return new DerbyConnectionFactory(
+			"jdbc:derby://" + HOST + ":" + port + "/" + dbName + ";create=true", user, password);
+	}
+
+	private Object newControl() throws Exception {
+		final Constructor<?> c = Class.forName(SERVER_CLASS).getConstructor(InetAddress.class, int.class);
+		return c.newInstance(InetAddress.getByName(HOST), port);
+	}
+
+	private Object invoke(String method, Class<?>[] types, Object... args) throws Exception {
+		try {
+			return control.getClass().getMethod(method, types).invoke(control, args);
+		} catch (InvocationTargetException ite) {
+			if( ite.getCause() instanceof Exception )
+				throw (Exception) ite.getCause();
+			throw ite;
+		}
+	}
+
+	private void awaitPing() throws Exception {
+		final long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+		while( true ) {
+			try {
+				invoke("ping", new Class<?>[0]);
+				return;
+			} catch (Exception e) {
+				if( System.currentTimeMillis() > deadline )
+					throw e;
+				if( process != null ) {
+					try {
+						throw new SQLException("Derby Network Server exited with " + process.exitValue());
+					} catch (IllegalThreadStateException stillRunning) {
+						/* not up yet */
+					}
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+}
@@ -2,48 +2,127 @@ package ch.dsd.profiling.eavprofiling;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created with IntelliJ IDEA.
  * User: dsd
  * Date: 5/21/13
  * Time: 11:16 AM
+ *
+ * Entity-attribute-value layout: one (vector_id, attribute_id, value) row per
+ * stored value. Vectors are reassembled by attribute_id, so in sparse mode
+ * only values other than DEFAULT_VALUE need to be stored. An instance is
+ * bound to one connection and is not thread-safe; threads share a table
+ * through ConnectionPool and PooledOperations. Vector ids are assigned by the
+ * instance, starting after the highest stored id when the table is opened;
+ * instances writing to one table at the same time must be copy()s of each
+ * other so they draw from the same counter.
  */
-public class EAVTable implements IDBOperations {
+public class EAVTable implements IDBOperations, IBatchInsert {
 	public static final String SQL_STATE_NOT_EXIST = "42Y55";
-	private static final String SQL_TABLE_NAME = "vectors_eav";
+	public static final String SQL_STATE_EXISTS = "X0Y32";
+	public static final String SQL_TABLE_NAME = "vectors_eav";
 	private static final String SQL_DROP_TABLE = "DROP TABLE " + SQL_TABLE_NAME;
 	private static final String SQL_KEY_NAME = "vector_id";
 	private static final String SQL_ATTR_NAME = "attribute_id";
 	private static final String SQL_VALUE_NAME = "value";
 	private static final String SQL_CREATE_TABLE =
-		String.format("CREATE TABLE %s (%s INT, %s SMALLINT, %s DOUBLE)", SQL_TABLE_NAME, SQL_KEY_NAME,
+		String.format("CREATE TABLE %s (%s INT NOT NULL, %s SMALLINT NOT NULL, %s DOUBLE)", SQL_TABLE_NAME, SQL_KEY_NAME,
 			SQL_ATTR_NAME, SQL_VALUE_NAME);
 
-	private static final String SQL_SELECT_FROM_WHERE_ORDER_ATTR =
+	/* every query returns (vector_id, attribute_id, value) rows, see Assembler */
+	private static final String SQL_ROW_COLUMNS = SQL_KEY_NAME + ", " + SQL_ATTR_NAME + ", " + SQL_VALUE_NAME;
 
-		"SELECT " + SQL_VALUE_NAME + " FROM " + SQL_TABLE_NAME + " WHERE " + SQL_KEY_NAME + "=? AND " +
+	private static final String SQL_SELECT_FROM_WHERE_ORDER_ATTR =
+		"SELECT " + SQL_ROW_COLUMNS + " FROM " + SQL_TABLE_NAME + " WHERE " + SQL_KEY_NAME + "=? AND " +
 			SQL_ATTR_NAME + " IN (%s) ORDER BY " + SQL_ATTR_NAME;
 
 	private static final String SQL_SELECT_FROM_WHERE_ORDER_VECTOR_ATTR =
-		"SELECT " + SQL_VALUE_NAME + " FROM " + SQL_TABLE_NAME + " WHERE %s AND " + SQL_ATTR_NAME + " IN (%s) ORDER BY " +
+		"SELECT " + SQL_ROW_COLUMNS + " FROM " + SQL_TABLE_NAME + " WHERE %s AND " + SQL_ATTR_NAME + " IN (%s) ORDER BY " +
 			SQL_KEY_NAME + ", " + SQL_ATTR_NAME;
 
+	private static final String SQL_SELECT_KEY_FROM_WHERE_IN_ORDER_VECTOR_ATTR =
+		String.format("SELECT %s FROM %s WHERE %s IN (%%s) AND %s IN (%%s) ORDER BY %s, %s", SQL_ROW_COLUMNS,
+			SQL_TABLE_NAME, SQL_KEY_NAME, SQL_ATTR_NAME, SQL_KEY_NAME, SQL_ATTR_NAME);
+
 	private static final String SQL_SELECT_FROM_ORDER_VECTOR_ATTR =
-		String.format("SELECT %s FROM %s WHERE %s IN (%%s) ORDER BY %s, %s", SQL_VALUE_NAME,
+		String.format("SELECT %s FROM %s WHERE %s IN (%%s) ORDER BY %s, %s", SQL_ROW_COLUMNS,
 			SQL_TABLE_NAME, SQL_ATTR_NAME, SQL_KEY_NAME, SQL_ATTR_NAME);
 
+	/*
+	 * pivot: a vector qualifies if every filtered attribute contributes one matching row. Written as a join
+	 * against the derived table; Derby does not flatten "IN (... GROUP BY ... HAVING)" and would re-run the
+	 * subquery for every outer row.
+	 */
+	private static final String SQL_SELECT_WHERE_MATCHING =
+		String.format("SELECT v.%s, v.%s, v.%s FROM (SELECT %s FROM %s WHERE %%s GROUP BY %s HAVING COUNT(*) = %%d) m " +
+			"JOIN %s v ON v.%s = m.%s AND v.%s IN (%%s) ORDER BY v.%s, v.%s", SQL_KEY_NAME, SQL_ATTR_NAME,
+			SQL_VALUE_NAME, SQL_KEY_NAME, SQL_TABLE_NAME, SQL_KEY_NAME, SQL_TABLE_NAME, SQL_KEY_NAME, SQL_KEY_NAME,
+			SQL_ATTR_NAME, SQL_KEY_NAME, SQL_ATTR_NAME);
+
+	/* sparse pivot: a matching vector without stored projected values still gets one row, of NULLs */
+	private static final String SQL_SELECT_WHERE_MATCHING_OUTER =
+		String.format("SELECT m.%s, v.%s, v.%s FROM (SELECT %s FROM %s WHERE %%s GROUP BY %s HAVING COUNT(*) = %%d) m " +
+			"LEFT OUTER JOIN %s v ON v.%s = m.%s AND v.%s IN (%%s) ORDER BY m.%s, v.%s", SQL_KEY_NAME, SQL_ATTR_NAME,
+			SQL_VALUE_NAME, SQL_KEY_NAME, SQL_TABLE_NAME, SQL_KEY_NAME, SQL_TABLE_NAME, SQL_KEY_NAME, SQL_KEY_NAME,
+			SQL_ATTR_NAME, SQL_KEY_NAME, SQL_ATTR_NAME);
+
+	private static final String SQL_AGGREGATE_GROUP_BY_ATTR =
+		String.format("SELECT %s, COUNT(%s), SUM(%s), SUM(%s*%s), MIN(%s), MAX(%s) FROM %s WHERE %s>=? AND %s<? " +
+			"AND %s IN (%%s) GROUP BY %s", SQL_ATTR_NAME, SQL_VALUE_NAME, SQL_VALUE_NAME, SQL_VALUE_NAME, SQL_VALUE_NAME,
+			SQL_VALUE_NAME, SQL_VALUE_NAME, SQL_TABLE_NAME, SQL_KEY_NAME, SQL_KEY_NAME, SQL_ATTR_NAME, SQL_ATTR_NAME);
+
 	private static final String SQL_INSERT_INTO_VALUES =
 		String.format("INSERT INTO %s VALUES (?,?,?)", SQL_TABLE_NAME);
 
-	private static final String SQL_CREATE_INDEX =
-		"CREATE INDEX vectorAttrIdx ON " + SQL_TABLE_NAME + " ( " + SQL_KEY_NAME + " ASC)";
+	private static final String SQL_SELECT_MAX_KEY =
+		String.format("SELECT MAX(%s) FROM %s", SQL_KEY_NAME, SQL_TABLE_NAME);
+
+	private static final String SQL_INDEX_NAME = "vectorAttrIdx";
+	private static final String SQL_PK_NAME = "vectorAttrPk";
+	private static final String SQL_CREATE_ATTR_VALUE_INDEX = "CREATE INDEX attrValueIdx ON " + SQL_TABLE_NAME +
+		" (" + SQL_ATTR_NAME + ", " + SQL_VALUE_NAME + ")";
+
+	/**
+	 * Index layouts that can be chosen when the table is created.
+	 */
+	public enum IndexStrategy {
+		/* no index at all, every access is a table scan */
+		NONE(null, null),
+		/* vector_id only; attribute filtering and ordering need the base rows */
+		KEY("CREATE INDEX " + SQL_INDEX_NAME + " ON " + SQL_TABLE_NAME + " ( " + SQL_KEY_NAME + " ASC)",
+			"DROP INDEX " + SQL_INDEX_NAME),
+		/* (vector_id, attribute_id); delivers rows in ORDER BY order */
+		COMPOSITE("CREATE INDEX " + SQL_INDEX_NAME + " ON " + SQL_TABLE_NAME + " ( " + SQL_KEY_NAME + " ASC, " +
+			SQL_ATTR_NAME + " ASC)", "DROP INDEX " + SQL_INDEX_NAME),
+		/* (vector_id, attribute_id, value); queries never touch the base table */
+		COVERING("CREATE INDEX " + SQL_INDEX_NAME + " ON " + SQL_TABLE_NAME + " ( " + SQL_KEY_NAME + " ASC, " +
+			SQL_ATTR_NAME + " ASC, " + SQL_VALUE_NAME + ")", "DROP INDEX " + SQL_INDEX_NAME),
+		/* unique (vector_id, attribute_id) backed by a primary key constraint */
+		PRIMARY_KEY("ALTER TABLE " + SQL_TABLE_NAME + " ADD CONSTRAINT " + SQL_PK_NAME + " PRIMARY KEY (" +
+			SQL_KEY_NAME + ", " + SQL_ATTR_NAME + ")",
+			"ALTER TABLE " + SQL_TABLE_NAME + " DROP CONSTRAINT " + SQL_PK_NAME);
+
+		private final String createSql;
+		private final String dropSql;
+
+		IndexStrategy(String createSql, String dropSql) {
+			this.createSql = createSql;
+			this.dropSql = dropSql;
+		}
+	}
 
-	/*
-	private static final String SQL_CREATE_INDEX =
-		"CREATE INDEX vectorAttrIdx ON " + SQL_TABLE_NAME + " ( " + SQL_KEY_NAME + " ASC, " + SQL_ATTR_NAME + " ASC)";*/
+	/* value of attributes without a row; sparse tables only store the others */
+	public static final double DEFAULT_VALUE = 0.0;
+	private static final long DEFAULT_BITS = Double.doubleToRawLongBits(DEFAULT_VALUE);
 
+	private final IndexStrategy indexStrategy;
+	private final boolean sparse;
+	private long indexBuildNanos = 0;
 	private int[] attrs;
 	private int cols;
 	private Connection con;
@@ -51,12 +130,55 @@ public class EAVTable implements IDBOperations {
 	private PreparedStatement psInsertValues;
 	private PreparedStatement psRangeValues;
 	private PreparedStatement psFullTable;
+	private final PreparedStatement[] psMultiGet = new PreparedStatement[MultiGet.CHUNK_SIZES.length];
+	private final MultiGet multiGet = new MultiGet();
+	private final StatementCache projections = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+	private int fetchSize = 0;
+
+	/* next vector id of this table; shared with the copies writing to it on other connections */
+	private final AtomicInteger currentId;
+
+	public EAVTable() {
+		this(IndexStrategy.KEY);
+	}
 
-	private int currentId;
+	public EAVTable(IndexStrategy indexStrategy) {
+		this(indexStrategy, false);
+	}
+
+	public EAVTable(IndexStrategy indexStrategy, boolean sparse) {
+		this(indexStrategy, sparse, new AtomicInteger());
+	}
+
+	private EAVTable(IndexStrategy indexStrategy, boolean sparse, AtomicInteger currentId) {
+		this.indexStrategy = indexStrategy;
+		this.sparse = sparse;
+		this.currentId = currentId;
+	}
+
+	public IndexStrategy getIndexStrategy() {
+		return indexStrategy;
+	}
+
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	/**
+	 * @return time spent building the index after the last createTable or bulkInsert
+	 */
+	public long getIndexBuildNanos() {
+		return indexBuildNanos;
+	}
 
 	@Override
 	public String getName() {
-		return this.getClass().getName();
+		return sparse ? this.getClass().getName() + " (sparse)" : this.getClass().getName();
+	}
+
+	@Override
+	public IDBOperations copy() {
+		return new EAVTable(indexStrategy, sparse, currentId);
 	}
 
 	@Override
@@ -80,68 +202,548 @@ public class EAVTable implements IDBOperations {
 				throw sqlExc;
 		}
 		s.execute(SQL_CREATE_TABLE);
-		sIdx.execute(SQL_CREATE_INDEX);
+		createIndex(sIdx);
 		con.commit();
 		prepareStatements();
 
-		currentId = 0;
+		currentId.set(0);
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		prepareStatements();
+
+		/* continue after the highest id already stored */
+		final int next = getMaxId() + 1;
+		int cur;
+		do {
+			cur = currentId.get();
+		} while( next > cur && !currentId.compareAndSet(cur, next) );
 	}
 
 	@Override
 	public void insertVec(double[] vals) throws SQLException {
+		addBatchVec(vals);
+		psInsertValues.executeBatch();
+	}
+
+	@Override
+	public void addBatchVec(double[] vals) throws SQLException {
+		final int id = currentId.getAndIncrement();
 		for( int i = 0; i < cols; i++ ) {
+			if( !isStored(vals, i) ) continue;
 			// using local state to ensure database consistency is a sin, I know.
-			psInsertValues.setInt(1, currentId);
+			psInsertValues.setInt(1, id);
 			psInsertValues.setShort(2, (short) i);
 			psInsertValues.setDouble(3, vals[i]);
 			psInsertValues.addBatch();
 		}
-		currentId++;
+	}
+
+	@Override
+	public void executeBatch() throws SQLException {
 		psInsertValues.executeBatch();
 	}
 
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		final DerbyImport imp = new DerbyImport();
+		try {
+			while( vecs.hasNext() ) {
+				final double[] vals = vecs.next();
+				final int id = currentId.getAndIncrement();
+				for( int i = 0; i < cols; i++ ) {
+					if( isStored(vals, i) ) imp.writeRow(id, i, vals[i]);
+				}
+			}
+		} catch (SQLException sqlExc) {
+			imp.dispose();
+			throw sqlExc;
+		}
+
+		/* load without the index and build it afterwards in one pass */
+		final Statement s = con.createStatement();
+		SQLException failure = null;
+		try {
+			closePrepStatements();
+			if( indexStrategy.dropSql != null ) s.execute(indexStrategy.dropSql);
+			imp.load(con, SQL_TABLE_NAME.toUpperCase(), null);
+		} catch (SQLException sqlExc) {
+			failure = sqlExc;
+			throw sqlExc;
+		} finally {
+			try {
+				try {
+					/* also after a failed load, so the table stays usable */
+					restoreIndex(s);
+				} finally {
+					s.close();
+					prepareStatements();
+				}
+			} catch (SQLException cleanupExc) {
+				/* keep the reason the load failed */
+				if( failure == null ) throw cleanupExc;
+				failure.addSuppressed(cleanupExc);
+			}
+		}
+	}
+
+	/* Rebuilds the index dropped by bulkInsert, unless rolling back a failed import restored it. */
+	private void restoreIndex(Statement s) throws SQLException {
+		try {
+			createIndex(s);
+		} catch (SQLException sqlExc) {
+			if( !SQL_STATE_EXISTS.equals(sqlExc.getSQLState()) )
+				throw sqlExc;
+		}
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	/**
+	 * In sparse mode default values are not stored; an all-default vector keeps
+	 * attribute 0, so that it still exists and counts for getMaxId.
+	 */
+	private boolean isStored(double[] vals, int i) {
+		if( !sparse || !isDefault(vals[i]) ) return true;
+		if( i != 0 ) return false;
+		for( int j = 1; j < cols; j++ ) {
+			if( !isDefault(vals[j]) ) return false;
+		}
+		return true;
+	}
+
+	private static boolean isDefault(double v) {
+		return Double.doubleToRawLongBits(v) == DEFAULT_BITS;
+	}
+
 	@Override
 	public double[] getVals(int idx) throws SQLException {
-		double[] res = new double[attrs.length];
-		int i = 0;
-		psGetValues.setInt(1, idx);
-		final ResultSet rs = psGetValues.executeQuery();
-		while( rs.next() ) {
-			res[i] = rs.getDouble(1);
-			i++;
+		return getVector(psGetValues, idx, attrs);
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final double[][] res = new double[ids.length][];
+		int off = 0;
+		while( off < ids.length ) {
+			final int n = multiGet.init(ids, off);
+			final PreparedStatement ps = getMultiGetStatement(multiGet.getStatementSize());
+			for( int k = 0; k < multiGet.getStatementSize(); k++ ) {
+				ps.setInt(k+1, multiGet.getParameter(k));
+			}
+			scan(ps, new Assembler(attrs), 0, 0, false, new VectorSink() {
+				@Override
+				public void accept(int id, double[] vals) {
+					multiGet.assign(res, id, vals.clone());
+				}
+			});
+			off += n;
+		}
+		if( sparse ) {
+			/* vectors without any projected row exist all the same */
+			final int maxId = getMaxId();
+			for( int k = 0; k < ids.length; k++ ) {
+				if( res[k] == null && ids[k] >= 0 && ids[k] <= maxId ) {
+					res[k] = defaults(attrs.length);
+				}
+			}
 		}
+		return Arrays.asList(res);
+	}
+
+	private PreparedStatement getMultiGetStatement(int size) throws SQLException {
+		final int slot = MultiGet.chunkSlot(size);
+		if( psMultiGet[slot] == null ) {
+			psMultiGet[slot] = con.prepareStatement(String.format(
+				SQL_SELECT_KEY_FROM_WHERE_IN_ORDER_VECTOR_ATTR, MultiGet.placeholders(size),
+				getAttributeList(this.attrs)));
+		}
+		return psMultiGet[slot];
+	}
+
+	private List<double[]> getMultipleValues(PreparedStatement ps, int[] attrs, int fromIdx, int toIdx)
+		throws SQLException {
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		scan(ps, new Assembler(attrs), fromIdx, toIdx, true, new VectorSink() {
+			@Override
+			public void accept(int id, double[] vals) {
+				res.add(vals.clone());
+			}
+		});
 		return res;
 	}
 
-	private List<double[]> getMultipleValues(PreparedStatement ps) throws SQLException {
-		ResultSet rs;
-		int i = 0, l = attrs.length;
-		ArrayList<double[]> res = new ArrayList<double[]>();
-		double[] curVec;
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		return getMultipleValues(psRangeValues, attrs, fromIdx, toIdx);
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return getMultipleValues(psFullTable, attrs, 0, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("get", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			ps = projections.prepare(con, key, String.format(
+				SQL_SELECT_FROM_WHERE_ORDER_ATTR, getAttributeList(canon)));
+		}
+		return getVector(ps, idx, attrs);
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("range", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			ps = projections.prepare(con, key, String.format(SQL_SELECT_FROM_WHERE_ORDER_VECTOR_ATTR,
+				SQL_KEY_NAME + ">=? AND " + SQL_KEY_NAME + "<?", getAttributeList(canon)));
+		}
+		ps.setInt(1, fromIdx);
+		ps.setInt(2, toIdx);
+		return getMultipleValues(ps, attrs, fromIdx, toIdx);
+	}
 
-		rs = ps.executeQuery();
-		curVec = new double[attrs.length];
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		if( filter.size() == 0 ) {
+			return getRange(0, Integer.MAX_VALUE, attrs);
+		}
+		if( sparse ) {
+			for( int t = 0; t < filter.size(); t++ ) {
+				/* vectors without a row for the attribute match as well, which the pivot cannot see */
+				if( filter.accepts(t, DEFAULT_VALUE) ) return selectClientSide(attrs, filter);
+			}
+		}
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("select " + filter.getShape(), canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			final StringBuilder where = new StringBuilder();
+			for( int t = 0; t < filter.size(); t++ ) {
+				if( t > 0 ) where.append(" OR ");
+				where.append("(").append(SQL_ATTR_NAME).append("=").append(filter.getAttr(t)).append(" AND ");
+				filter.appendCondition(where, t, SQL_VALUE_NAME);
+				where.append(")");
+			}
+			ps = projections.prepare(con, key, String.format(sparse ? SQL_SELECT_WHERE_MATCHING_OUTER :
+				SQL_SELECT_WHERE_MATCHING, where, filter.size(), getAttributeList(canon)));
+		}
+		int param = 1;
+		for( int t = 0; t < filter.size(); t++ ) {
+			param = filter.bind(ps, t, param);
+		}
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		scan(ps, new Assembler(attrs), 0, 0, false, new VectorSink() {
+			@Override
+			public void accept(int id, double[] vals) {
+				res.add(vals.clone());
+			}
+		});
+		return res;
+	}
+
+	private List<double[]> selectClientSide(int[] attrs, final Predicate filter) throws SQLException {
+		final int[] all = Arrays.copyOf(attrs, attrs.length + filter.size());
+		for( int t = 0; t < filter.size(); t++ ) {
+			all[attrs.length + t] = filter.getAttr(t);
+		}
+		final int n = attrs.length;
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		for( double[] vals: getRange(0, Integer.MAX_VALUE, all) ) {
+			boolean match = true;
+			for( int t = 0; t < filter.size() && match; t++ ) {
+				match = filter.accepts(t, vals[n + t]);
+			}
+			if( match ) res.add(Arrays.copyOf(vals, n));
+		}
+		return res;
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) throws SQLException {
+		/* one (attribute_id, value) index serves the filters on every attribute */
+		final Statement s = con.createStatement();
+		try {
+			s.execute(SQL_CREATE_ATTR_VALUE_INDEX);
+			con.commit();
+		} catch (SQLException sqlExc) {
+			if( !SQL_STATE_EXISTS.equals(sqlExc.getSQLState()) )
+				throw sqlExc;
+		} finally {
+			s.close();
+		}
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("aggregate", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			ps = projections.prepare(con, key, String.format(SQL_AGGREGATE_GROUP_BY_ATTR, getAttributeList(canon)));
+		}
+		ps.setInt(1, fromIdx);
+		ps.setInt(2, toIdx);
+		final AttributeStats res = new AttributeStats(attrs);
+		final ResultSet rs = ps.executeQuery();
 		while( rs.next() ) {
-			curVec[i % l] = rs.getDouble(1);
-			if( i % l == l-1 ) {
-				res.add(curVec);
-				curVec = new double[attrs.length];
+			final int attr = rs.getInt(1);
+			/* an attribute may be requested more than once */
+			for( int i = 0; i < attrs.length; i++ ) {
+				if( attrs[i] == attr ) {
+					res.add(i, rs.getLong(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+				}
+			}
+		}
+		rs.close();
+		if( sparse ) {
+			/* every vector in range without a row holds the default value */
+			final long vectors = Math.max(0L, Math.min((long) toIdx, getMaxId() + 1L) - Math.max(0, fromIdx));
+			for( int i = 0; i < attrs.length; i++ ) {
+				final long missing = vectors - res.getCount(i);
+				res.add(i, missing, missing * DEFAULT_VALUE, missing * DEFAULT_VALUE * DEFAULT_VALUE,
+					DEFAULT_VALUE, DEFAULT_VALUE);
 			}
-			i++;
 		}
 		return res;
 	}
 
 	@Override
-	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
 		psRangeValues.setInt(1, fromIdx);
 		psRangeValues.setInt(2, toIdx);
-		return getMultipleValues(psRangeValues);
+		return fillBlock(psRangeValues, block, fromIdx, toIdx);
 	}
 
 	@Override
-	public List<double[]> getFullTable() throws SQLException {
-		return getMultipleValues(psFullTable);
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return fillBlock(psFullTable, block, 0, Integer.MAX_VALUE);
+	}
+
+	private VectorBlock fillBlock(PreparedStatement ps, VectorBlock block, int fromIdx, int toIdx)
+		throws SQLException {
+		final VectorBlock res = VectorBlock.reuse(block, attrs.length);
+		scan(ps, new Assembler(attrs), fromIdx, toIdx, true, new VectorSink() {
+			@Override
+			public void accept(int id, double[] vals) {
+				final int off = res.addRow();
+				System.arraycopy(vals, 0, res.getData(), off, vals.length);
+			}
+		});
+		return res;
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		stream(psRangeValues, consumer, fromIdx, toIdx);
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		stream(psFullTable, consumer, 0, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		this.fetchSize = rows;
+		/* applied again whenever the statements are prepared */
+		if( psRangeValues != null ) {
+			psRangeValues.setFetchSize(rows);
+			psFullTable.setFetchSize(rows);
+		}
+	}
+
+	private void stream(PreparedStatement ps, final VectorConsumer consumer, int fromIdx, int toIdx)
+		throws SQLException {
+		scan(ps, new Assembler(attrs), fromIdx, toIdx, true, new VectorSink() {
+			@Override
+			public void accept(int id, double[] vals) throws SQLException {
+				consumer.accept(vals);
+			}
+		});
+	}
+
+	/**
+	 * Receives reassembled vectors; vals is reused once the call returns.
+	 */
+	private interface VectorSink {
+		void accept(int id, double[] vals) throws SQLException;
+	}
+
+	/**
+	 * Collects the (vector_id, attribute_id, value) rows of one vector at a
+	 * time. Values are placed by attribute_id, so attributes without a row keep
+	 * DEFAULT_VALUE, and are handed out in the order of the requested attrs.
+	 */
+	private static final class Assembler {
+		private final int[] canon;
+		private final int[] pos;
+		private final double[] values;
+		private int id;
+		private boolean pending = false;
+
+		Assembler(int[] attrs) {
+			this.canon = StatementCache.canonicalize(attrs);
+			this.pos = StatementCache.positions(canon, attrs);
+			this.values = new double[canon.length];
+			Arrays.fill(values, DEFAULT_VALUE);
+		}
+
+		int width() {
+			return pos.length;
+		}
+
+		/* whether a row of vector nextId completes the pending vector */
+		boolean completes(int nextId) {
+			return pending && nextId != id;
+		}
+
+		/* a vector none of whose projected attributes has a row */
+		void add(int id) {
+			this.id = id;
+			this.pending = true;
+		}
+
+		void add(int id, int attr, double v) {
+			this.id = id;
+			this.pending = true;
+			values[Arrays.binarySearch(canon, attr)] = v;
+		}
+
+		boolean isPending() {
+			return pending;
+		}
+
+		int getId() {
+			return id;
+		}
+
+		double[] emit(double[] out) {
+			for( int i = 0; i < pos.length; i++ ) {
+				out[i] = values[pos[i]];
+			}
+			Arrays.fill(values, DEFAULT_VALUE);
+			pending = false;
+			return out;
+		}
+	}
+
+	/**
+	 * Runs ps, whose rows are ordered by vector_id, and hands every vector to
+	 * the sink. With fillGaps, a sparse table also passes all-default vectors
+	 * for the ids in [fromIdx, toIdx) that have no projected row at all, since
+	 * vector ids are dense.
+	 */
+	private void scan(PreparedStatement ps, Assembler asm, int fromIdx, int toIdx, boolean fillGaps,
+		VectorSink sink) throws SQLException {
+		final boolean gaps = fillGaps && sparse;
+		final double[] vals = new double[asm.width()];
+		int next = Math.max(0, fromIdx);
+		/* decode time includes handing the assembled vectors to the sink */
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
+		final ResultSet rs = ps.executeQuery();
+		t = Instrumentation.executed(trace, t);
+		try {
+			while( rs.next() ) {
+				t = Instrumentation.fetched(trace, t);
+				final int id = rs.getInt(1);
+				if( asm.completes(id) ) {
+					next = emit(asm, next, gaps, vals, sink);
+				}
+				final int attr = rs.getInt(2);
+				if( rs.wasNull() ) {
+					/* outer join row of a vector with default values only */
+					asm.add(id);
+				} else {
+					asm.add(id, attr, rs.getDouble(3));
+				}
+				t = Instrumentation.decoded(trace, t);
+			}
+			Instrumentation.finished(trace, t);
+		} finally {
+			rs.close();
+		}
+		if( asm.isPending() ) {
+			next = emit(asm, next, gaps, vals, sink);
+		}
+		if( gaps ) {
+			final int end = (int) Math.min((long) toIdx, getMaxId() + 1L);
+			fillDefaults(next, end, vals, sink);
+		}
+	}
+
+	private static int emit(Assembler asm, int next, boolean gaps, double[] vals, VectorSink sink)
+		throws SQLException {
+		final int id = asm.getId();
+		if( gaps ) fillDefaults(next, id, vals, sink);
+		sink.accept(id, asm.emit(vals));
+		return id + 1;
+	}
+
+	private static void fillDefaults(int from, int to, double[] vals, VectorSink sink) throws SQLException {
+		for( int id = from; id < to; id++ ) {
+			Arrays.fill(vals, DEFAULT_VALUE);
+			sink.accept(id, vals);
+		}
+	}
+
+	private double[] getVector(PreparedStatement ps, int idx, int[] attrs) throws SQLException {
+		final Assembler asm = new Assembler(attrs);
+		ps.setInt(1, idx);
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
+		final ResultSet rs = ps.executeQuery();
+		t = Instrumentation.executed(trace, t);
+		try {
+			while( rs.next() ) {
+				t = Instrumentation.fetched(trace, t);
+				asm.add(idx, rs.getInt(2), rs.getDouble(3));
+				t = Instrumentation.decoded(trace, t);
+			}
+			Instrumentation.finished(trace, t);
+		} finally {
+			rs.close();
+		}
+		if( asm.isPending() ) {
+			return asm.emit(new double[attrs.length]);
+		}
+		/* like the other layouts, report a missing vector as null */
+		return sparse && idx >= 0 && idx <= getMaxId() ? defaults(attrs.length) : null;
+	}
+
+	private static double[] defaults(int n) {
+		final double[] res = new double[n];
+		Arrays.fill(res, DEFAULT_VALUE);
+		return res;
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		final Statement s = con.createStatement();
+		try {
+			final ResultSet rs = s.executeQuery(SQL_SELECT_MAX_KEY);
+			final int max = rs.next() ? rs.getInt(1) : 0;
+			return rs.wasNull() ? -1 : max;
+		} finally {
+			s.close();
+		}
 	}
 
 	@Override
@@ -154,6 +756,12 @@ public class EAVTable implements IDBOperations {
 		closePrepStatements();
 	}
 
+	private void createIndex(Statement s) throws SQLException {
+		final long start = System.nanoTime();
+		if( indexStrategy.createSql != null ) s.execute(indexStrategy.createSql);
+		indexBuildNanos = System.nanoTime() - start;
+	}
+
 	private void closePrepStatements() throws SQLException {
 		// close all prepared statements
 		PreparedStatement[] psArray = {psGetValues, psInsertValues, psRangeValues, psFullTable};
@@ -162,6 +770,13 @@ public class EAVTable implements IDBOperations {
 				ps.close();
 			}
 		}
+		for( int i = 0; i < psMultiGet.length; i++ ) {
+			if( psMultiGet[i] != null && !psMultiGet[i].isClosed() ) {
+				psMultiGet[i].close();
+			}
+			psMultiGet[i] = null;
+		}
+		projections.clear();
 	}
 
 	private void prepareStatements() throws SQLException {
@@ -182,6 +797,8 @@ public class EAVTable implements IDBOperations {
 
 		this.psInsertValues = con.prepareStatement(SQL_INSERT_INTO_VALUES);
 
+		psRangeValues.setFetchSize(fetchSize);
+		psFullTable.setFetchSize(fetchSize);
 	}
 
 	private String getAttributeList(int[] attrs) {
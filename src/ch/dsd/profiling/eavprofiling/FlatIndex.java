@@ -0,0 +1,67 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * Exact brute-force index: all vectors in one row-major double[], scanned
+ * sequentially for every query. The inner loop is a plain sum of squared
+ * differences over contiguous memory; a row is abandoned as soon as its
+ * partial sum exceeds the current k-th best distance.
+ */
+public class FlatIndex implements VectorIndex {
+	private final int dim;
+	private double[] data;
+	private int[] ids;
+	private int size = 0;
+
+	public FlatIndex(int dim) {
+		this.dim = dim;
+		this.data = new double[16 * dim];
+		this.ids = new int[16];
+	}
+
+	@Override
+	public int getDimensions() {
+		return dim;
+	}
+
+	@Override
+	public void add(int id, double[] vals) {
+		if( size == ids.length ) {
+			ids = Arrays.copyOf(ids, size * 2);
+			data = Arrays.copyOf(data, size * 2 * dim);
+		}
+		System.arraycopy(vals, 0, data, size * dim, dim);
+		ids[size++] = id;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Neighbors nearest(double[] query, int k) {
+		final Neighbors res = new Neighbors(k);
+		final double[] data = this.data;
+		double bound = res.bound();
+		for( int r = 0, off = 0; r < size; r++, off += dim ) {
+			double d2 = 0.0;
+			int j = 0;
+			for( ; j < dim && d2 < bound; j++ ) {
+				final double diff = data[off + j] - query[j];
+				d2 += diff * diff;
+			}
+			if( j == dim && d2 < bound ) {
+				res.offer(ids[r], d2);
+				bound = res.bound();
+			}
+		}
+		return res.finish();
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+	}
+}
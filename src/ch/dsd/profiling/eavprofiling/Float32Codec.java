@@ -0,0 +1,41 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * Lossy: every value is rounded to the nearest float and stored in four
+ * little-endian bytes, halving the stored size at about 7 significant digits.
+ */
+public class Float32Codec implements VectorCodec {
+
+	@Override
+	public String getName() {
+		return "FLOAT32";
+	}
+
+	@Override
+	public int maxEncodedSize(int n) {
+		return n * 4;
+	}
+
+	@Override
+	public byte[] encode(double[] vals, int n) {
+		final byte[] data = new byte[n * 4];
+		for( int i = 0, off = 0; i < n; i++, off += 4 ) {
+			final int bits = Float.floatToRawIntBits((float) vals[i]);
+			data[off] = (byte) bits;
+			data[off + 1] = (byte) (bits >>> 8);
+			data[off + 2] = (byte) (bits >>> 16);
+			data[off + 3] = (byte) (bits >>> 24);
+		}
+		return data;
+	}
+
+	@Override
+	public int decode(byte[] data, double[] out) {
+		final int n = data.length / 4;
+		for( int i = 0, off = 0; i < n; i++, off += 4 ) {
+			out[i] = Float.intBitsToFloat((data[off] & 0xff) | (data[off + 1] & 0xff) << 8 |
+				(data[off + 2] & 0xff) << 16 | (data[off + 3] & 0xff) << 24);
+		}
+		return n;
+	}
+}
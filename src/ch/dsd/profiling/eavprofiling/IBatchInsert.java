@@ -0,0 +1,13 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.SQLException;
+
+/**
+ * Layouts that can collect several vectors into a single JDBC batch.
+ */
+public interface IBatchInsert {
+
+	public void addBatchVec( double[] vals ) throws SQLException;
+	public void executeBatch() throws SQLException;
+	public void commit() throws SQLException;
+}
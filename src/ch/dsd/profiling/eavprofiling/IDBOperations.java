@@ -2,6 +2,7 @@ package ch.dsd.profiling.eavprofiling;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -13,12 +14,39 @@ import java.util.List;
 public interface IDBOperations {
 
 	public String getName();
+	/* Unconnected instance with the same configuration, sharing table-wide state such as the vector id counter. */
+	public IDBOperations copy();
 	public void setConnection( Connection con ) throws SQLException;
 	public void createTable( int cols, int[] attrs ) throws SQLException;
+	/* Attach to a table previously set up by createTable, without dropping it. */
+	public void openTable( int cols, int[] attrs ) throws SQLException;
 	public void insertVec( double[] vals ) throws SQLException;
+	/* Bulk load all vectors (Derby layouts use the import procedure); the caller commits. */
+	public void bulkInsert( Iterator<double[]> vecs ) throws SQLException;
+	public void bulkInsert( double[][] vecs ) throws SQLException;
 	public double[] getVals( int idx ) throws SQLException;
+	/* Fetch many vectors in few round trips; results are in request order, null for missing ids. */
+	public List<double[]> getVals( int[] ids ) throws SQLException;
 	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException;
 	public List<double[]> getFullTable() throws SQLException;
+	/* Ad hoc projections; values are returned in the order of the given attrs. */
+	public double[] getVals( int idx, int[] attrs ) throws SQLException;
+	public List<double[]> getRange( int fromIdx, int toIdx, int[] attrs ) throws SQLException;
+	/* Vectors matching the filter, projected to attrs; the filter is evaluated by the database where possible. */
+	public List<double[]> select( int[] attrs, Predicate filter ) throws SQLException;
+	/* Secondary index for select() filters on attr; a no-op where stored values cannot be indexed. */
+	public void createAttributeIndex( int attr ) throws SQLException;
+	/* Count, sum, sum of squares, min and max of each attribute over [fromIdx, toIdx), computed by the database. */
+	public AttributeStats aggregate( int[] attrs, int fromIdx, int toIdx ) throws SQLException;
+	/* Fill the given block (or a new one if null) instead of allocating one array per vector. */
+	public VectorBlock getRange( int fromIdx, int toIdx, VectorBlock block ) throws SQLException;
+	public VectorBlock getFullTable( VectorBlock block ) throws SQLException;
+	/* Stream vectors through a forward-only cursor; memory use does not depend on the table size. */
+	public void forEachVector( int fromIdx, int toIdx, VectorConsumer consumer ) throws SQLException;
+	public void forEachVector( VectorConsumer consumer ) throws SQLException;
+	public void setFetchSize( int rows ) throws SQLException;
+	/* Highest vector id stored, -1 for an empty table. */
+	public int getMaxId() throws SQLException;
 	public void commit() throws SQLException;
 	public void dispose() throws SQLException;
 }
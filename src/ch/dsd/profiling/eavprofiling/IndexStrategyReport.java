@@ -0,0 +1,86 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Cost/benefit report for the EAVTable index strategies. For every strategy
+ * the table is bulk loaded, then the index build time, the allocated size of
+ * table and index, and point lookup and range scan latencies are printed.
+ */
+public class IndexStrategyReport {
+
+	static final int[] tableSizes = {100000, 1000000};
+	static final int cols = Main.cols;
+	static final int[] attrs = Main.attrs;
+	static final int lookups = 10000;
+	static final int rangeSize = 100;
+	static final int ranges = 1000;
+
+	private final ConnectionFactory connections = ReportSupport.connections();
+
+	private void report(Connection con, EAVTable.IndexStrategy strategy, int tableSize) throws SQLException {
+		final Random rnd = new Random(42);
+		final EAVTable table = new EAVTable(strategy);
+		table.setConnection(con);
+		table.createTable(cols, attrs);
+		final double[][] vecs = new double[tableSize][];
+		for( int i = 0; i < tableSize; i++ ) {
+			vecs[i] = ReportSupport.getRandomValues(rnd, cols);
+		}
+		final long loadStart = System.nanoTime();
+		table.bulkInsert(vecs);
+		table.commit();
+		final long loadNanos = System.nanoTime() - loadStart;
+
+		final long[] bytes = DerbyDiag.getAllocatedBytes(con, EAVTable.SQL_TABLE_NAME);
+		System.out.println(String.format(
+			"\t %s tableSize: %d, load: %.1f ms, index build: %.1f ms, table: %.1f MB, index: %.1f MB",
+			strategy, tableSize, loadNanos / 1e6, table.getIndexBuildNanos() / 1e6,
+			bytes[0] / 1048576.0, bytes[1] / 1048576.0));
+
+		final LatencyHistogram hist = new LatencyHistogram();
+		for( int i = 0; i < lookups; i++ ) {
+			final int id = rnd.nextInt(tableSize);
+			hist.start();
+			table.getVals(id);
+			hist.stop();
+		}
+		ReportSupport.printLatencies("getVals", hist);
+		hist.clear();
+		for( int i = 0; i < ranges; i++ ) {
+			final int from = rnd.nextInt(tableSize - rangeSize);
+			hist.start();
+			table.getRange(from, from + rangeSize);
+			hist.stop();
+		}
+		ReportSupport.printLatencies("getRange", hist);
+		table.commit();
+		table.dispose();
+	}
+
+	public void go(String[] args) {
+		Connection con = null;
+		try {
+			ReportSupport.loadDriver();
+			con = connections.newConnection();
+			for( int tableSize: tableSizes ) {
+				for( EAVTable.IndexStrategy strategy: EAVTable.IndexStrategy.values() ) {
+					report(con, strategy, tableSize);
+				}
+			}
+		} catch (SQLException sqlExc) {
+			Main.printSQLException(sqlExc);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			ReportSupport.close(con);
+			ReportSupport.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		new IndexStrategyReport().go(args);
+	}
+}
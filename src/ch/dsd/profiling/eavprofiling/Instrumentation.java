@@ -0,0 +1,158 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Hooks for timing the phases of a JDBC read inside the layouts. A call is
+ * only traced while InstrumentedOperations runs it on the current thread;
+ * otherwise current() returns null and every hook returns at once, so an
+ * untraced call pays one ThreadLocal lookup plus a null check per hook. A
+ * traced read loop looks like
+ *
+ *   final Instrumentation.Trace trace = Instrumentation.current();
+ *   long t = Instrumentation.start(trace);
+ *   rs = ps.executeQuery();
+ *   t = Instrumentation.executed(trace, t);
+ *   while( rs.next() ) {
+ *     t = Instrumentation.fetched(trace, t);
+ *     ... getDouble ...
+ *     t = Instrumentation.decoded(trace, t);
+ *   }
+ *   Instrumentation.finished(trace, t);
+ *
+ * The time to the first row of a call counts as FIRST_ROW, later next()
+ * calls as FETCH and the work on each row, up to handing it on, as DECODE.
+ */
+public final class Instrumentation {
+
+	public enum Phase { EXECUTE, FIRST_ROW, FETCH, DECODE }
+
+	/**
+	 * Phase times and row count of the call running on one thread; reused for
+	 * every call of that thread.
+	 */
+	public static final class Trace {
+		final long[] nanos = new long[Phase.values().length];
+		long rows;
+		long vectors;
+		boolean ok;
+		int depth;
+		long startNanos;
+		long startBytes;
+
+		void reset() {
+			for( int i = 0; i < nanos.length; i++ ) {
+				nanos[i] = 0;
+			}
+			rows = 0;
+			vectors = 0;
+			ok = false;
+			startBytes = allocatedBytes();
+			startNanos = System.nanoTime();
+		}
+
+		long getNanos(Phase phase) {
+			return nanos[phase.ordinal()];
+		}
+	}
+
+	private static final ThreadLocal<Trace> traces = new ThreadLocal<Trace>() {
+		@Override
+		protected Trace initialValue() {
+			return new Trace();
+		}
+	};
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final boolean allocationSupported = initAllocationCounter();
+
+	private Instrumentation() {
+	}
+
+	private static boolean initAllocationCounter() {
+		try {
+			if( threads instanceof com.sun.management.ThreadMXBean ) {
+				final com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+				if( t.isThreadAllocatedMemorySupported() ) {
+					t.setThreadAllocatedMemoryEnabled(true);
+					return true;
+				}
+			}
+		} catch (LinkageError e) {
+			/* not a HotSpot VM */
+		} catch (UnsupportedOperationException e) {
+			/* counter not available */
+		}
+		return false;
+	}
+
+	public static boolean isAllocationSupported() {
+		return allocationSupported;
+	}
+
+	/**
+	 * @return bytes allocated by the current thread so far, 0 if the VM cannot tell
+	 */
+	static long allocatedBytes() {
+		if( !allocationSupported ) return 0;
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Starts tracing a call on this thread; calls nested in a traced call
+	 * share its trace.
+	 */
+	static Trace begin() {
+		final Trace trace = traces.get();
+		if( trace.depth++ == 0 ) trace.reset();
+		return trace;
+	}
+
+	/**
+	 * @return true if this ended the outermost traced call
+	 */
+	static boolean end(Trace trace) {
+		return --trace.depth == 0;
+	}
+
+	/**
+	 * @return the trace of the call running on this thread, or null if it is not traced
+	 */
+	public static Trace current() {
+		final Trace trace = traces.get();
+		return trace.depth > 0 ? trace : null;
+	}
+
+	public static long start(Trace trace) {
+		return trace == null ? 0 : System.nanoTime();
+	}
+
+	public static long executed(Trace trace, long since) {
+		return add(trace, Phase.EXECUTE, since);
+	}
+
+	/* Called after each successful rs.next(). */
+	public static long fetched(Trace trace, long since) {
+		if( trace == null ) return 0;
+		final long t = add(trace, trace.rows == 0 ? Phase.FIRST_ROW : Phase.FETCH, since);
+		trace.rows++;
+		return t;
+	}
+
+	public static long decoded(Trace trace, long since) {
+		return add(trace, Phase.DECODE, since);
+	}
+
+	/* Called after the row loop; the last next() call is fetch time. */
+	public static void finished(Trace trace, long since) {
+		add(trace, trace != null && trace.rows == 0 ? Phase.FIRST_ROW : Phase.FETCH, since);
+	}
+
+	private static long add(Trace trace, Phase phase, long since) {
+		if( trace == null ) return 0;
+		final long now = System.nanoTime();
+		trace.nanos[phase.ordinal()] += now - since;
+		return now;
+	}
+}
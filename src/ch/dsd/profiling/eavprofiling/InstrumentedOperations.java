@@ -0,0 +1,436 @@
+package ch.dsd.profiling.eavprofiling;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorator recording per-operation counters for any IDBOperations: call
+ * count and latency, bytes allocated by the calling thread and vectors
+ * returned. Layouts with Instrumentation hooks (STDTable, EAVTable) also
+ * report how the time splits into execute, first row, fetch and decode and
+ * how many result set rows each vector took. The counters can be registered
+ * as MBeans and dumped periodically; the decorator is as thread-safe as its
+ * delegate.
+ */
+public class InstrumentedOperations implements IDBOperations {
+	public static final String JMX_DOMAIN = "ch.dsd.profiling.eavprofiling";
+
+	public enum Op {
+		GET_VALS, MULTI_GET, GET_VALS_PROJECTED, GET_RANGE, GET_RANGE_PROJECTED, GET_RANGE_BLOCK, GET_FULL_TABLE,
+		GET_FULL_TABLE_BLOCK, SELECT, AGGREGATE, FOR_EACH_VECTOR, INSERT_VEC, BULK_INSERT, GET_MAX_ID, COMMIT
+	}
+
+	private final IDBOperations delegate;
+	private final OperationMetrics[] metrics;
+	private ObjectName[] registered;
+	private ScheduledExecutorService snapshots;
+
+	public InstrumentedOperations(IDBOperations delegate) {
+		this(delegate, new OperationMetrics[Op.values().length]);
+		for( Op op: Op.values() ) {
+			metrics[op.ordinal()] = new OperationMetrics(op.name());
+		}
+	}
+
+	private InstrumentedOperations(IDBOperations delegate, OperationMetrics[] metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	public IDBOperations getDelegate() {
+		return delegate;
+	}
+
+	public OperationMetrics getMetrics(Op op) {
+		return metrics[op.ordinal()];
+	}
+
+	public void reset() {
+		for( OperationMetrics m: metrics ) {
+			m.reset();
+		}
+	}
+
+	/**
+	 * Registers one MBean per operation with the platform MBeanServer, named
+	 * JMX_DOMAIN:type=InstrumentedOperations,layout=getName(),operation=op.
+	 */
+	public synchronized void registerMBeans() throws JMException {
+		if( registered != null ) return;
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName[] names = new ObjectName[metrics.length];
+		for( Op op: Op.values() ) {
+			names[op.ordinal()] = new ObjectName(JMX_DOMAIN + ":type=InstrumentedOperations,layout=" +
+				ObjectName.quote(delegate.getName()) + ",operation=" + op.name());
+		}
+		int n = 0;
+		try {
+			for( ; n < names.length; n++ ) {
+				server.registerMBean(metrics[n], names[n]);
+			}
+		} catch (JMException jmExc) {
+			while( n-- > 0 ) {
+				server.unregisterMBean(names[n]);
+			}
+			throw jmExc;
+		}
+		registered = names;
+	}
+
+	public synchronized void unregisterMBeans() throws JMException {
+		if( registered == null ) return;
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for( ObjectName name: registered ) {
+			if( server.isRegistered(name) ) server.unregisterMBean(name);
+		}
+		registered = null;
+	}
+
+	/**
+	 * Prints the counters of every operation called so far.
+	 */
+	public void printSnapshot(PrintStream out) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%tT %s%n", System.currentTimeMillis(), delegate.getName()));
+		for( OperationMetrics m: metrics ) {
+			if( m.getCalls() > 0 ) sb.append("\t ").append(m).append(String.format("%n"));
+		}
+		out.print(sb);
+	}
+
+	/**
+	 * Prints a snapshot every periodMillis from a daemon thread until stopSnapshots().
+	 */
+	public synchronized void startSnapshots(long periodMillis, final PrintStream out) {
+		stopSnapshots();
+		snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "InstrumentedOperations-snapshots");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		snapshots.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				printSnapshot(out);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopSnapshots() {
+		if( snapshots != null ) {
+			snapshots.shutdownNow();
+			snapshots = null;
+		}
+	}
+
+	private static void done(Instrumentation.Trace trace, long vectors) {
+		/* only the outermost decorator counts the result */
+		if( trace.depth != 1 ) return;
+		trace.vectors += vectors;
+		trace.ok = true;
+	}
+
+	private void end(Op op, Instrumentation.Trace trace) {
+		if( !Instrumentation.end(trace) ) return;
+		final long allocated = Instrumentation.allocatedBytes() - trace.startBytes;
+		metrics[op.ordinal()].record(trace, System.nanoTime() - trace.startNanos, allocated);
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+
+	/**
+	 * Wraps a copy of the delegate; calls through the copy are counted in the
+	 * same metrics.
+	 */
+	@Override
+	public IDBOperations copy() {
+		return new InstrumentedOperations(delegate.copy(), metrics);
+	}
+
+	@Override
+	public void setConnection(Connection con) throws SQLException {
+		delegate.setConnection(con);
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		delegate.createTable(cols, attrs);
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		delegate.openTable(cols, attrs);
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			delegate.insertVec(vals);
+			done(trace, 1);
+		} finally {
+			end(Op.INSERT_VEC, trace);
+		}
+	}
+
+	@Override
+	public void bulkInsert(final Iterator<double[]> vecs) throws SQLException {
+		final long[] n = {0};
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			delegate.bulkInsert(new Iterator<double[]>() {
+				@Override
+				public boolean hasNext() {
+					return vecs.hasNext();
+				}
+
+				@Override
+				public double[] next() {
+					n[0]++;
+					return vecs.next();
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			});
+			done(trace, n[0]);
+		} finally {
+			end(Op.BULK_INSERT, trace);
+		}
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	@Override
+	public double[] getVals(int idx) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final double[] res = delegate.getVals(idx);
+			done(trace, res == null ? 0 : 1);
+			return res;
+		} finally {
+			end(Op.GET_VALS, trace);
+		}
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final List<double[]> res = delegate.getVals(ids);
+			int n = 0;
+			for( double[] v: res ) {
+				if( v != null ) n++;
+			}
+			done(trace, n);
+			return res;
+		} finally {
+			end(Op.MULTI_GET, trace);
+		}
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final List<double[]> res = delegate.getRange(fromIdx, toIdx);
+			done(trace, res.size());
+			return res;
+		} finally {
+			end(Op.GET_RANGE, trace);
+		}
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final List<double[]> res = delegate.getFullTable();
+			done(trace, res.size());
+			return res;
+		} finally {
+			end(Op.GET_FULL_TABLE, trace);
+		}
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final double[] res = delegate.getVals(idx, attrs);
+			done(trace, res == null ? 0 : 1);
+			return res;
+		} finally {
+			end(Op.GET_VALS_PROJECTED, trace);
+		}
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final List<double[]> res = delegate.getRange(fromIdx, toIdx, attrs);
+			done(trace, res.size());
+			return res;
+		} finally {
+			end(Op.GET_RANGE_PROJECTED, trace);
+		}
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final List<double[]> res = delegate.select(attrs, filter);
+			done(trace, res.size());
+			return res;
+		} finally {
+			end(Op.SELECT, trace);
+		}
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) throws SQLException {
+		delegate.createAttributeIndex(attr);
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final AttributeStats res = delegate.aggregate(attrs, fromIdx, toIdx);
+			done(trace, 0);
+			return res;
+		} finally {
+			end(Op.AGGREGATE, trace);
+		}
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final VectorBlock res = delegate.getRange(fromIdx, toIdx, block);
+			done(trace, res.getRows());
+			return res;
+		} finally {
+			end(Op.GET_RANGE_BLOCK, trace);
+		}
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final VectorBlock res = delegate.getFullTable(block);
+			done(trace, res.getRows());
+			return res;
+		} finally {
+			end(Op.GET_FULL_TABLE_BLOCK, trace);
+		}
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final CountingConsumer counter = new CountingConsumer(consumer);
+			delegate.forEachVector(fromIdx, toIdx, counter);
+			done(trace, counter.n);
+		} finally {
+			end(Op.FOR_EACH_VECTOR, trace);
+		}
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final CountingConsumer counter = new CountingConsumer(consumer);
+			delegate.forEachVector(counter);
+			done(trace, counter.n);
+		} finally {
+			end(Op.FOR_EACH_VECTOR, trace);
+		}
+	}
+
+	private static class CountingConsumer implements VectorConsumer {
+		private final VectorConsumer consumer;
+		long n = 0;
+
+		CountingConsumer(VectorConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void accept(double[] vals) throws SQLException {
+			n++;
+			consumer.accept(vals);
+		}
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		delegate.setFetchSize(rows);
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			final int res = delegate.getMaxId();
+			done(trace, 0);
+			return res;
+		} finally {
+			end(Op.GET_MAX_ID, trace);
+		}
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		final Instrumentation.Trace trace = Instrumentation.begin();
+		try {
+			delegate.commit();
+			done(trace, 0);
+		} finally {
+			end(Op.COMMIT, trace);
+		}
+	}
+
+	/**
+	 * Stops the snapshots and unregisters the MBeans before disposing the delegate.
+	 */
+	@Override
+	public void dispose() throws SQLException {
+		stopSnapshots();
+		try {
+			unregisterMBeans();
+		} catch (JMException jmExc) {
+			jmExc.printStackTrace(System.err);
+		}
+		delegate.dispose();
+	}
+}
@@ -0,0 +1,186 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * KD-tree over the same row-major point array as FlatIndex; every point is a
+ * node, children are kept in parallel int arrays. New points are inserted at
+ * a leaf, and the tree is rebuilt around medians (cycling through the
+ * dimensions) once an insertion path grows beyond twice the balanced depth.
+ * With maxChecks > 0 a query stops visiting further branches after that many
+ * distance computations, trading recall for latency; 0 searches exactly.
+ */
+public class KDTreeIndex implements VectorIndex {
+	private static final int NIL = -1;
+
+	private final int dim;
+	private final int maxChecks;
+	private double[] data;
+	private int[] ids;
+	private int[] left;
+	private int[] right;
+	private int[] splitDim;
+	private int size = 0;
+	private int root = NIL;
+	private boolean unbalanced = false;
+
+	public KDTreeIndex(int dim) {
+		this(dim, 0);
+	}
+
+	public KDTreeIndex(int dim, int maxChecks) {
+		this.dim = dim;
+		this.maxChecks = maxChecks;
+		this.data = new double[16 * dim];
+		this.ids = new int[16];
+		this.left = new int[16];
+		this.right = new int[16];
+		this.splitDim = new int[16];
+	}
+
+	@Override
+	public int getDimensions() {
+		return dim;
+	}
+
+	@Override
+	public void add(int id, double[] vals) {
+		if( size == ids.length ) {
+			final int n = size * 2;
+			data = Arrays.copyOf(data, n * dim);
+			ids = Arrays.copyOf(ids, n);
+			left = Arrays.copyOf(left, n);
+			right = Arrays.copyOf(right, n);
+			splitDim = Arrays.copyOf(splitDim, n);
+		}
+		final int node = size++;
+		System.arraycopy(vals, 0, data, node * dim, dim);
+		ids[node] = id;
+		left[node] = NIL;
+		right[node] = NIL;
+		if( root == NIL ) {
+			root = node;
+			splitDim[node] = 0;
+			return;
+		}
+		int n = root;
+		int depth = 1;
+		while( true ) {
+			final int d = splitDim[n];
+			if( vals[d] < data[n * dim + d] ) {
+				if( left[n] == NIL ) {
+					left[n] = node;
+					break;
+				}
+				n = left[n];
+			} else {
+				if( right[n] == NIL ) {
+					right[n] = node;
+					break;
+				}
+				n = right[n];
+			}
+			depth++;
+		}
+		splitDim[node] = (splitDim[n] + 1) % dim;
+		if( depth > 2 * (32 - Integer.numberOfLeadingZeros(size)) + 2 ) {
+			unbalanced = true;
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Neighbors nearest(double[] query, int k) {
+		if( unbalanced ) {
+			rebuild();
+		}
+		final Neighbors res = new Neighbors(k);
+		if( root != NIL ) {
+			search(root, query, res, new int[1]);
+		}
+		return res.finish();
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		root = NIL;
+		unbalanced = false;
+	}
+
+	/**
+	 * Rebuilds a balanced tree over all points.
+	 */
+	public void rebuild() {
+		final int[] perm = new int[size];
+		for( int i = 0; i < size; i++ ) {
+			perm[i] = i;
+		}
+		root = build(perm, 0, size, 0);
+		unbalanced = false;
+	}
+
+	private int build(int[] perm, int lo, int hi, int d) {
+		if( lo >= hi ) return NIL;
+		final int mid = (lo + hi) >>> 1;
+		select(perm, lo, hi - 1, mid, d);
+		final int node = perm[mid];
+		splitDim[node] = d;
+		final int next = (d + 1) % dim;
+		left[node] = build(perm, lo, mid, next);
+		right[node] = build(perm, mid + 1, hi, next);
+		return node;
+	}
+
+	/**
+	 * Moves the k-th smallest point (by coordinate d) of perm[lo..hi] to
+	 * position k, smaller or equal ones before it, larger or equal ones after.
+	 */
+	private void select(int[] perm, int lo, int hi, int k, int d) {
+		while( lo < hi ) {
+			final double pivot = data[perm[k] * dim + d];
+			int i = lo;
+			int j = hi;
+			do {
+				while( data[perm[i] * dim + d] < pivot ) i++;
+				while( pivot < data[perm[j] * dim + d] ) j--;
+				if( i <= j ) {
+					final int t = perm[i];
+					perm[i] = perm[j];
+					perm[j] = t;
+					i++;
+					j--;
+				}
+			} while( i <= j );
+			if( j < k ) lo = i;
+			if( k < i ) hi = j;
+		}
+	}
+
+	private void search(int node, double[] query, Neighbors res, int[] checks) {
+		final int off = node * dim;
+		double d2 = 0.0;
+		for( int j = 0; j < dim; j++ ) {
+			final double diff = data[off + j] - query[j];
+			d2 += diff * diff;
+		}
+		checks[0]++;
+		if( d2 < res.bound() ) {
+			res.offer(ids[node], d2);
+		}
+		final int d = splitDim[node];
+		final double diff = query[d] - data[off + d];
+		final int near = diff < 0 ? left[node] : right[node];
+		final int far = diff < 0 ? right[node] : left[node];
+		if( near != NIL ) {
+			search(near, query, res, checks);
+		}
+		if( far != NIL && diff * diff < res.bound() && (maxChecks == 0 || checks[0] < maxChecks) ) {
+			search(far, query, res, checks);
+		}
+	}
+}
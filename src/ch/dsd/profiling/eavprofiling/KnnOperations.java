@@ -0,0 +1,282 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decorator adding k-nearest-neighbour search to any IDBOperations. One
+ * VectorIndex is kept per projection asked for; it is loaded in chunks of
+ * getRange on first use and afterwards kept up to date by insertVec and
+ * bulkInsert. Ids are taken from the delegate, so the decorator may wrap a
+ * table that already holds vectors, but it is assumed to be its only writer.
+ */
+public class KnnOperations implements IDBOperations {
+	private static final int LOAD_CHUNK = 4096;
+
+	public enum IndexType { FLAT, KD_TREE }
+
+	private static class Entry {
+		final int[] attrs;
+		final VectorIndex index;
+
+		Entry(int[] attrs, VectorIndex index) {
+			this.attrs = attrs;
+			this.index = index;
+		}
+	}
+
+	private final IDBOperations delegate;
+	private final IndexType indexType;
+	private final int maxChecks;
+	private final List<Entry> indexes = new ArrayList<Entry>();
+	private int[] attrs;
+
+	public KnnOperations(IDBOperations delegate, IndexType indexType) {
+		this(delegate, indexType, 0);
+	}
+
+	/**
+	 * @param maxChecks distance computations per KD-tree query, 0 for exact search
+	 */
+	public KnnOperations(IDBOperations delegate, IndexType indexType, int maxChecks) {
+		this.delegate = delegate;
+		this.indexType = indexType;
+		this.maxChecks = maxChecks;
+	}
+
+	public IDBOperations getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * @return the k vectors closest to query on the table's projection
+	 */
+	public Neighbors nearest(double[] query, int k) throws SQLException {
+		if( attrs == null )
+			throw new IllegalStateException("Table not created or opened through this decorator; pass the attributes");
+		return nearest(query, k, attrs);
+	}
+
+	/**
+	 * @param query values of attrs, in the same order
+	 * @return the k vectors closest to query on the given attributes
+	 */
+	public Neighbors nearest(double[] query, int k, int[] attrs) throws SQLException {
+		if( query.length != attrs.length )
+			throw new IllegalArgumentException("Query has " + query.length + " values for " + attrs.length + " attributes");
+		return getIndex(attrs).nearest(query, k);
+	}
+
+	/**
+	 * @return the index over the given attributes, loaded from the table on first use
+	 */
+	public VectorIndex getIndex(int[] attrs) throws SQLException {
+		for( Entry e: indexes ) {
+			if( Arrays.equals(e.attrs, attrs) ) return e.index;
+		}
+		final VectorIndex index = newIndex(attrs.length);
+		final int end = delegate.getMaxId() + 1;
+		for( int from = 0; from < end; from += LOAD_CHUNK ) {
+			final int to = Math.min(end, from + LOAD_CHUNK);
+			final List<double[]> chunk = delegate.getRange(from, to, attrs);
+			if( chunk.size() == to - from ) {
+				for( int i = 0; i < chunk.size(); i++ ) {
+					index.add(from + i, chunk.get(i));
+				}
+				continue;
+			}
+			/* some ids in the chunk are missing, so positions are not ids */
+			for( int id = from; id < to; id++ ) {
+				final double[] vals = delegate.getVals(id, attrs);
+				if( vals != null ) index.add(id, vals);
+			}
+		}
+		indexes.add(new Entry(attrs.clone(), index));
+		return index;
+	}
+
+	private VectorIndex newIndex(int dim) {
+		switch (indexType) {
+			case KD_TREE:
+				return new KDTreeIndex(dim, maxChecks);
+			default:
+				return new FlatIndex(dim);
+		}
+	}
+
+	private void index(int id, double[] vals) {
+		for( Entry e: indexes ) {
+			final double[] projected = new double[e.attrs.length];
+			for( int i = 0; i < projected.length; i++ ) {
+				projected[i] = vals[e.attrs[i]];
+			}
+			e.index.add(id, projected);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName() + " (" + indexType + ")";
+	}
+
+	/**
+	 * Wraps a copy of the delegate; its indexes are built anew.
+	 */
+	@Override
+	public IDBOperations copy() {
+		return new KnnOperations(delegate.copy(), indexType, maxChecks);
+	}
+
+	@Override
+	public void setConnection(Connection con) throws SQLException {
+		delegate.setConnection(con);
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		delegate.createTable(cols, attrs);
+		this.attrs = attrs;
+		indexes.clear();
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		delegate.openTable(cols, attrs);
+		this.attrs = attrs;
+		indexes.clear();
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		delegate.insertVec(vals);
+		/* the delegate has just assigned the highest id */
+		if( !indexes.isEmpty() ) index(delegate.getMaxId(), vals);
+	}
+
+	@Override
+	public void bulkInsert(final Iterator<double[]> vecs) throws SQLException {
+		if( indexes.isEmpty() ) {
+			delegate.bulkInsert(vecs);
+			return;
+		}
+		/* the delegate numbers the loaded vectors consecutively up to its new highest id */
+		final List<double[]> loaded = new ArrayList<double[]>();
+		delegate.bulkInsert(new Iterator<double[]>() {
+			@Override
+			public boolean hasNext() {
+				return vecs.hasNext();
+			}
+
+			@Override
+			public double[] next() {
+				final double[] vals = vecs.next();
+				loaded.add(vals);
+				return vals;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+		final int firstId = delegate.getMaxId() + 1 - loaded.size();
+		for( int i = 0; i < loaded.size(); i++ ) {
+			index(firstId + i, loaded.get(i));
+		}
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	@Override
+	public double[] getVals(int idx) throws SQLException {
+		return delegate.getVals(idx);
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		return delegate.getVals(ids);
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		return delegate.getRange(fromIdx, toIdx);
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return delegate.getFullTable();
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		return delegate.getVals(idx, attrs);
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		return delegate.getRange(fromIdx, toIdx, attrs);
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		return delegate.select(attrs, filter);
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) throws SQLException {
+		delegate.createAttributeIndex(attr);
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		return delegate.aggregate(attrs, fromIdx, toIdx);
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		return delegate.getRange(fromIdx, toIdx, block);
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return delegate.getFullTable(block);
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		delegate.forEachVector(fromIdx, toIdx, consumer);
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		delegate.forEachVector(consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		delegate.setFetchSize(rows);
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		return delegate.getMaxId();
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		delegate.commit();
+	}
+
+	@Override
+	public void dispose() throws SQLException {
+		indexes.clear();
+		delegate.dispose();
+	}
+}
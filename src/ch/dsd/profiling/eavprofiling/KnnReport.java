@@ -0,0 +1,147 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Recall and latency of KnnOperations against the brute-force baseline of
+ * reading the whole table plus sorting in Java. For every layout the table is bulk
+ * loaded once; each index is then loaded from it and asked the same queries.
+ * Recall is the fraction of the exact k nearest ids an index returns.
+ */
+public class KnnReport {
+
+	static final int tableSize = 100000;
+	static final int cols = Main.cols;
+	static final int[] attrs = Main.attrs;
+	static final int k = 10;
+	static final int queries = 200;
+	/* KD-tree query budgets; 0 is exact search */
+	static final int[] maxChecks = {0, 2048, 256};
+
+	private final ConnectionFactory connections = ReportSupport.connections();
+
+	/**
+	 * What callers did before: fetch everything, compute all distances, sort.
+	 * The table is read in id order with getRange, getFullTable has no defined
+	 * order, so positions in its result are not ids.
+	 */
+	private static int[] bruteForce(IDBOperations schema, double[] query) throws SQLException {
+		final int maxId = schema.getMaxId();
+		final List<double[]> vecs = schema.getRange(0, maxId + 1);
+		/* the report loads one contiguous block of ids ending at maxId */
+		final int firstId = maxId + 1 - vecs.size();
+		final double[] dists = new double[vecs.size()];
+		final Integer[] order = new Integer[vecs.size()];
+		for( int i = 0; i < dists.length; i++ ) {
+			final double[] v = vecs.get(i);
+			double d2 = 0.0;
+			for( int j = 0; j < query.length; j++ ) {
+				d2 += (v[j] - query[j]) * (v[j] - query[j]);
+			}
+			dists[i] = d2;
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(dists[a], dists[b]);
+			}
+		});
+		final int[] res = new int[Math.min(k, order.length)];
+		for( int i = 0; i < res.length; i++ ) {
+			res[i] = firstId + order[i];
+		}
+		return res;
+	}
+
+	private static int overlap(int[] exact, int[] found) {
+		int n = 0;
+		for( int id: found ) {
+			for( int e: exact ) {
+				if( e == id ) {
+					n++;
+					break;
+				}
+			}
+		}
+		return n;
+	}
+
+	private void report(Connection con, IDBOperations schema) throws SQLException {
+		final Random rnd = new Random(42);
+		System.out.println("================");
+		System.out.println(schema.getName());
+		System.out.println("================");
+		schema.setConnection(con);
+		schema.createTable(cols, attrs);
+		final double[][] vecs = new double[tableSize][];
+		for( int i = 0; i < tableSize; i++ ) {
+			vecs[i] = ReportSupport.getRandomValues(rnd, cols);
+		}
+		schema.bulkInsert(vecs);
+		schema.commit();
+
+		final double[][] qs = new double[queries][];
+		final int[][] exact = new int[queries][];
+		final LatencyHistogram hist = new LatencyHistogram();
+		for( int q = 0; q < queries; q++ ) {
+			qs[q] = ReportSupport.getRandomValues(rnd, attrs.length);
+			hist.start();
+			exact[q] = bruteForce(schema, qs[q]);
+			hist.stop();
+		}
+		ReportSupport.printLatencies("getRange+sort recall: 1.0000,", hist);
+
+		final KnnOperations[] indexed = new KnnOperations[maxChecks.length + 1];
+		indexed[0] = new KnnOperations(schema, KnnOperations.IndexType.FLAT);
+		for( int i = 0; i < maxChecks.length; i++ ) {
+			indexed[i + 1] = new KnnOperations(schema, KnnOperations.IndexType.KD_TREE, maxChecks[i]);
+		}
+		for( int i = 0; i < indexed.length; i++ ) {
+			final long loadStart = System.nanoTime();
+			indexed[i].getIndex(attrs);
+			final long loadNanos = System.nanoTime() - loadStart;
+			hist.clear();
+			long hits = 0;
+			for( int q = 0; q < queries; q++ ) {
+				hist.start();
+				final Neighbors res = indexed[i].nearest(qs[q], k, attrs);
+				hist.stop();
+				hits += overlap(exact[q], res.getIds());
+			}
+			final String label = i == 0 ? "FLAT" : "KD_TREE maxChecks=" + maxChecks[i - 1];
+			System.out.println(String.format("\t %s load: %.1f ms", label, loadNanos / 1e6));
+			ReportSupport.printLatencies(
+				String.format("%s recall: %.4f,", label, hits / (double) (queries * k)), hist);
+		}
+		schema.dispose();
+	}
+
+	public void go(String[] args) {
+		IDBOperations[] schemas = {new STDTable(), new EAVTable(), new BlobTable()};
+		Connection con = null;
+		try {
+			ReportSupport.loadDriver();
+			con = connections.newConnection();
+			for( IDBOperations schema: schemas ) {
+				report(con, schema);
+			}
+		} catch (SQLException sqlExc) {
+			Main.printSQLException(sqlExc);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			ReportSupport.close(con);
+			ReportSupport.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		new KnnReport().go(args);
+	}
+}
@@ -0,0 +1,132 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * Latency recorder with nanosecond resolution. Samples are counted in a
+ * fixed, log-bucketed histogram (each power of two is split into
+ * 2^SUB_BUCKET_BITS linear sub-buckets, i.e. ~3% relative error), so
+ * recording never allocates and the memory footprint does not depend on the
+ * number of samples. Instances are not thread-safe; give every thread its own
+ * histogram and {@link #merge(LatencyHistogram)} them afterwards.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long startTick = 0;
+	private long n = 0;
+	private long sum = 0;
+	private double sumOfSquares = 0;
+	private long min = Long.MAX_VALUE;
+	private long max = 0;
+
+	public void start() {
+		startTick = System.nanoTime();
+	}
+
+	public void stop() {
+		record(System.nanoTime() - startTick);
+	}
+
+	public void record(long nanos) {
+		if( nanos < 0 ) nanos = 0;
+		counts[getBucketIndex(nanos)]++;
+		n++;
+		sum += nanos;
+		sumOfSquares += ((double) nanos) * ((double) nanos);
+		if( nanos < min ) min = nanos;
+		if( nanos > max ) max = nanos;
+	}
+
+	public void merge(LatencyHistogram other) {
+		for( int i = 0; i < BUCKET_COUNT; i++ ) {
+			counts[i] += other.counts[i];
+		}
+		n += other.n;
+		sum += other.sum;
+		sumOfSquares += other.sumOfSquares;
+		if( other.min < min ) min = other.min;
+		if( other.max > max ) max = other.max;
+	}
+
+	public long getCount() {
+		return n;
+	}
+
+	/** @return mean latency in nanoseconds */
+	public double getAverage() {
+		return n == 0 ? 0.0 : ((double) sum) / ((double) n);
+	}
+
+	/** @return standard deviation in nanoseconds */
+	public double getStdDev() {
+		if( n == 0 ) return 0.0;
+		double avg = getAverage();
+		return Math.sqrt(Math.max(0.0, sumOfSquares/((double) n) - (avg*avg)));
+	}
+
+	public long getMin() {
+		return n == 0 ? 0 : min;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @param percentile in the range [0, 100]
+	 * @return the latency in nanoseconds below which the given percentage of
+	 * samples fall, accurate to the width of the containing bucket
+	 */
+	public long getPercentile(double percentile) {
+		if( n == 0 ) return 0;
+		long rank = (long) Math.ceil(percentile / 100.0 * (double) n);
+		if( rank < 1 ) rank = 1;
+		long seen = 0;
+		for( int i = 0; i < BUCKET_COUNT; i++ ) {
+			seen += counts[i];
+			if( seen >= rank ) {
+				final long mid = getBucketLowerBound(i) + (getBucketWidth(i) - 1) / 2;
+				return Math.max(getMin(), Math.min(mid, max));
+			}
+		}
+		return max;
+	}
+
+	public void clear() {
+		java.util.Arrays.fill(counts, 0);
+		startTick = 0;
+		n = 0;
+		sum = 0;
+		sumOfSquares = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	private static int getBucketIndex(long v) {
+		if( v < SUB_BUCKET_COUNT ) {
+			return (int) v;
+		}
+		final int msb = 63 - Long.numberOfLeadingZeros(v);
+		final int shift = msb - SUB_BUCKET_BITS;
+		final int mantissa = (int) (v >>> shift) & SUB_BUCKET_MASK;
+		return ((shift + 1) << SUB_BUCKET_BITS) | mantissa;
+	}
+
+	private static long getBucketLowerBound(int idx) {
+		if( idx < SUB_BUCKET_COUNT ) {
+			return idx;
+		}
+		final int shift = (idx >>> SUB_BUCKET_BITS) - 1;
+		return ((long) (SUB_BUCKET_COUNT + (idx & SUB_BUCKET_MASK))) << shift;
+	}
+
+	private static long getBucketWidth(int idx) {
+		if( idx < SUB_BUCKET_COUNT ) {
+			return 1;
+		}
+		return 1L << ((idx >>> SUB_BUCKET_BITS) - 1);
+	}
+}
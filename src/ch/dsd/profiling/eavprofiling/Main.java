@@ -4,6 +4,7 @@ package ch.dsd.profiling.eavprofiling;
 Disclaimer: This code is for testing purposes only.
  */
 
+import javax.management.JMException;
 import java.sql.*;
 import java.util.*;
 
@@ -22,14 +23,40 @@ public class Main {
 	static final int[] attrs = {0,1,2,3,4,5};
 	static final int testRuns = 3;
 	static final int cols = 23;
+	/* how tables are filled: one insertVec per vector, through a BufferedVectorWriter, or bulkInsert */
+	enum FillMode { SINGLE, BUFFERED, BULK }
+	static final FillMode fillMode = FillMode.SINGLE;
+	static final int writerBatchVectors = 500;
+	static final long writerBatchBytes = 1 << 20;
+	static final int writerCommitEvery = 10;
+	static final int writerQueueCapacity = 10000;
+	/* skew of the random access keys; 0 selects uniformly distributed ids */
+	static final double zipfTheta = 0.99;
+	/* vectors cached in front of getVals per layout, 0 disables the cache */
+	static final int cacheCapacity = 0;
+	/* staleness bound in ms of an in-memory replica serving the reads of each layout, -1 disables it */
+	static final long replicaStalenessMillis = -1;
+	static final EAVTable.IndexStrategy eavIndexStrategy = EAVTable.IndexStrategy.KEY;
+	/* fraction of non-zero values in generated vectors; sparse EAV tables only store those */
+	static final double density = 1.0;
+	static final boolean eavSparse = false;
+	/* fraction of the vectors kept by the filter of the select test */
+	static final double selectivity = 0.01;
+	/* period of the per-operation timing dumps in ms; 0 runs the layouts without InstrumentedOperations */
+	static final long snapshotMillis = 0;
 
 	private String dbName = "derbyDB";
 	private String userName = "user1";
-	private static final String framework = "embedded";
-	private static final String driver = "org.apache.derby.jdbc.EmbeddedDriver";
-	private static final String protocol = "jdbc:derby:";
+	/* "embedded", or "derbyclient" to go through a Network Server on localhost; see parseArguments */
+	private String framework = "embedded";
+	private String driver = "org.apache.derby.jdbc.EmbeddedDriver";
+	private String protocol = "jdbc:derby:";
+	private DerbyNetworkServer.Mode serverMode = DerbyNetworkServer.Mode.IN_PROCESS;
+	private DerbyNetworkServer server;
 
 	private Connection con;
+	private ZipfGenerator zipf;
+	private final Random random = new Random();
 
 	private void connect() throws SQLException {
 		Properties props = new Properties();
@@ -42,34 +69,73 @@ public class Main {
 	private double[] getRandomValues( int n ) {
 		double[] res = new double[n];
 		for( int i = 0; i < n; i++ ) {
-			res[i] = Math.random();
+			res[i] = Math.random() < density ? Math.random() : 0.0;
 		}
 		return res;
 	}
 
 	private int getRandomId( int n ) {
+		if( zipfTheta > 0 ) {
+			if( zipf == null || zipf.getN() != n )
+				zipf = new ZipfGenerator(n, zipfTheta, random);
+			return zipf.nextScrambledInt();
+		}
 		double rnd = Math.random();
 		return (int) (rnd*((double)n));
 	}
 
 	private void printTestResults(
-		int testrun, int tableSize, int batchSize, double avg, double stdd ) {
+		int testrun, int tableSize, int batchSize, LatencyHistogram hist ) {
+		/* latencies are recorded in ns, reported in us */
 		System.out.println(String.format(
-			"\t\t testrun: %d, tableSize: %d, batchSize: %d, avg: %f, stdd: %f",
-			testrun, tableSize, batchSize, avg, stdd
+			"\t\t testrun: %d, tableSize: %d, batchSize: %d, n: %d, avg: %.3f, stdd: %.3f, " +
+				"p50: %.3f, p90: %.3f, p99: %.3f, p99.9: %.3f, max: %.3f [us]",
+			testrun, tableSize, batchSize, hist.getCount(), hist.getAverage() / 1000.0, hist.getStdDev() / 1000.0,
+			hist.getPercentile(50.0) / 1000.0, hist.getPercentile(90.0) / 1000.0,
+			hist.getPercentile(99.0) / 1000.0, hist.getPercentile(99.9) / 1000.0, hist.getMax() / 1000.0
 		));
 	}
 
 	public void go(String[] args) {
-		DeltaSequence deltaSeq = new DeltaSequence();
-		IDBOperations[] schemas = new IDBOperations[2];
+		LatencyHistogram deltaSeq = new LatencyHistogram();
+		IDBOperations[] schemas = new IDBOperations[5];
 		schemas[0] = new STDTable();
-		schemas[1] = new EAVTable();
+		schemas[1] = new EAVTable(eavIndexStrategy, eavSparse);
+		schemas[2] = new BlobTable();
+		schemas[3] = new MmapVectorStore();
+		schemas[4] = new ColumnarTable();
+		if( cacheCapacity > 0 ) {
+			for( int i = 0; i < schemas.length; i++ ) {
+				schemas[i] = new CachingOperations(schemas[i], cacheCapacity);
+			}
+		}
+		if( replicaStalenessMillis >= 0 ) {
+			for( int i = 0; i < schemas.length; i++ ) {
+				schemas[i] = new ReplicatedOperations(schemas[i], replicaStalenessMillis);
+			}
+		}
+		if( snapshotMillis > 0 ) {
+			for( int i = 0; i < schemas.length; i++ ) {
+				final InstrumentedOperations instrumented = new InstrumentedOperations(schemas[i]);
+				try {
+					instrumented.registerMBeans();
+				} catch (JMException jmExc) {
+					jmExc.printStackTrace(System.err);
+				}
+				instrumented.startSnapshots(snapshotMillis, System.out);
+				schemas[i] = instrumented;
+			}
+		}
 		int lastSize = 0;
 		List<double[]> res = new ArrayList<double[]>();
+		parseArguments(args);
 		// HashMap<IDBOperations, ArrayList<double[]>> verificationData = new HashMap<IDBOperations, ArrayList<double[]>>();
 
 		try {
+			if( framework.equals("derbyclient") ) {
+				server = new DerbyNetworkServer(serverMode, DerbyNetworkServer.DEFAULT_PORT);
+				server.start();
+			}
 			loadDriver();
 			connect();
 
@@ -91,18 +157,45 @@ public class Main {
 
 					/* Fill in required vectors */
 					System.out.print("\tFilling in table...");
-					final DeltaSequence fillSeq = new DeltaSequence();
-					for( int i = 0; i < (tableSize - lastSize); i++ ) {
-						final double[] vec = getRandomValues(cols);
-						// verificationVectors.add(vec);
+					final LatencyHistogram fillSeq = new LatencyHistogram();
+					final int fillCount = tableSize - lastSize;
+					final long fillStart = System.nanoTime();
+					if( fillMode == FillMode.BULK ) {
+						final double[][] vecs = new double[fillCount][];
+						for( int i = 0; i < fillCount; i++ ) {
+							vecs[i] = getRandomValues(cols);
+						}
 						fillSeq.start();
-						schema.insertVec(vec);
+						schema.bulkInsert(vecs);
 						fillSeq.stop();
+					} else if( fillMode == FillMode.BUFFERED && unwrap(schema, IBatchInsert.class) != null ) {
+						final BufferedVectorWriter writer = new BufferedVectorWriter(unwrap(schema, IBatchInsert.class),
+							writerBatchVectors, writerBatchBytes, writerCommitEvery, writerQueueCapacity);
+						try {
+							for( int i = 0; i < fillCount; i++ ) {
+								final double[] vec = getRandomValues(cols);
+								fillSeq.start();
+								writer.write(vec);
+								fillSeq.stop();
+							}
+						} finally {
+							writer.close();
+						}
+					} else {
+						for( int i = 0; i < fillCount; i++ ) {
+							final double[] vec = getRandomValues(cols);
+							// verificationVectors.add(vec);
+							fillSeq.start();
+							schema.insertVec(vec);
+							fillSeq.stop();
+						}
 					}
-					printTestResults(0, tableSize-lastSize, 0, fillSeq.getAverage(), fillSeq.getStdDev());
+					/* a bulk load is a single sample, its rate below is the only meaningful figure */
+					if( fillMode != FillMode.BULK ) printTestResults(0, fillCount, 0, fillSeq);
 					System.out.println("committing...");
 					schema.commit();
-					System.out.println("done.");
+					System.out.println(String.format("done. (%.0f rows/sec)",
+						fillCount / ((System.nanoTime() - fillStart) / 1e9)));
 					/* Perform tests */
 					for( int batchSize: batchSizes ) {
 
@@ -115,10 +208,30 @@ public class Main {
 								schema.getVals(id);
 								deltaSeq.stop();
 							}
-							printTestResults(r, tableSize, batchSize,
-								deltaSeq.getAverage(), deltaSeq.getStdDev());
+							printTestResults(r, tableSize, batchSize, deltaSeq);
 							deltaSeq.clear();
 						} /* testrun */
+						final CachingOperations caching = unwrap(schema, CachingOperations.class);
+						if( caching != null ) {
+							final VectorCache cache = caching.getCache();
+							System.out.println(String.format("\t\t cache hits: %d, misses: %d, evictions: %d",
+								cache.getHits(), cache.getMisses(), cache.getEvictions()));
+							cache.resetCounters();
+						}
+
+						System.out.println("\t= Multi-get Test =");
+						for( int r = 0; r < testRuns; r++ ) {
+							/* Fetch batchSize random vectors in one call */
+							final int[] ids = new int[batchSize];
+							for( int i = 0; i < batchSize; i++ ) {
+								ids[i] = getRandomId(tableSize);
+							}
+							deltaSeq.start();
+							schema.getVals(ids);
+							deltaSeq.stop();
+						} /* testrun */
+						printTestResults(testRuns, tableSize, batchSize, deltaSeq);
+						deltaSeq.clear();
 
 						System.out.println("\t= Batch Test =");
 						for( int r = 0; r < testRuns; r++ ) {
@@ -128,8 +241,29 @@ public class Main {
 							deltaSeq.stop();
 						} /* testrun */
 
-						printTestResults(testRuns, tableSize, batchSize,
-							deltaSeq.getAverage(), deltaSeq.getStdDev());
+						printTestResults(testRuns, tableSize, batchSize, deltaSeq);
+						deltaSeq.clear();
+
+						System.out.println("\t= Select Test =");
+						for( int r = 0; r < testRuns; r++ ) {
+							/* values are uniform in [0, 1), so this keeps ~selectivity of the table */
+							final double lo = Math.random() * (1.0 - selectivity);
+							deltaSeq.start();
+							schema.select(attrs, Predicate.range(attrs[0], lo, true, lo + selectivity, false));
+							deltaSeq.stop();
+						} /* testrun */
+						printTestResults(testRuns, tableSize, batchSize, deltaSeq);
+						deltaSeq.clear();
+
+						System.out.println("\t= Aggregate Test =");
+						for( int r = 0; r < testRuns; r++ ) {
+							/* statistics over the same range the batch test fetches */
+							deltaSeq.start();
+							schema.aggregate(attrs, 0, batchSize);
+							deltaSeq.stop();
+						} /* testrun */
+						printTestResults(testRuns, tableSize, batchSize, deltaSeq);
+						deltaSeq.clear();
 
 						/* Verify batch result
 						boolean verifySuccess = true;
@@ -151,6 +285,7 @@ public class Main {
 						} */
 					} /* batch Size */
 				} /* schema */
+				lastSize = tableSize;
 			} /* table Size */
 
 			if (framework.equals("embedded"))
@@ -177,11 +312,19 @@ public class Main {
 			try {
 				/* dispose statements */
 				for( IDBOperations schema: schemas ) {
+					if( schema instanceof InstrumentedOperations ) {
+						((InstrumentedOperations) schema).printSnapshot(System.out);
+					}
 					schema.dispose();
 				}
 
 				/* close connection */
-				if( con != null ) con.close();
+				if( con != null ) {
+					if( !con.isClosed() ) con.commit();
+					con.close();
+				}
+				/* also shuts down the databases booted by the server */
+				if( server != null ) server.stop();
 			} catch (SQLException sqlExc ) {
 				sqlExc.printStackTrace(System.err);
 			}
@@ -189,6 +332,47 @@ public class Main {
 	}
 
 
+	/**
+	 * Looks through the decorators Main wraps around a layout for the given
+	 * type, so that turning on replication or instrumentation does not change
+	 * which code paths are measured.
+	 *
+	 * @return the outermost schema of that type, or null
+	 */
+	private static <T> T unwrap(IDBOperations schema, Class<T> type) {
+		while( !type.isInstance(schema) ) {
+			if( schema instanceof InstrumentedOperations ) {
+				schema = ((InstrumentedOperations) schema).getDelegate();
+			} else if( schema instanceof ReplicatedOperations ) {
+				schema = ((ReplicatedOperations) schema).getDelegate();
+			} else if( schema instanceof CachingOperations ) {
+				schema = ((CachingOperations) schema).getDelegate();
+			} else {
+				return null;
+			}
+		}
+		return type.cast(schema);
+	}
+
+	/**
+	 * Reads the framework from the command line: "derbyclient" runs everything
+	 * through the ClientDriver against a Network Server started by this
+	 * program, by default inside this JVM or, with "separatejvm", in its own
+	 * process. Anything else keeps the embedded driver.
+	 */
+	private void parseArguments(String[] args) {
+		for( String arg: args ) {
+			if( arg.equalsIgnoreCase("derbyclient") ) {
+				framework = "derbyclient";
+				driver = DerbyNetworkServer.CLIENT_DRIVER;
+				protocol = "jdbc:derby://localhost:" + DerbyNetworkServer.DEFAULT_PORT + "/";
+			} else if( arg.equalsIgnoreCase("separatejvm") ) {
+				serverMode = DerbyNetworkServer.Mode.SEPARATE_JVM;
+			}
+		}
+		System.out.println("Main starting in " + framework + " mode");
+	}
+
 	/**
 	 * Prints details of an SQLException chain to <code>System.err</code>.
 	 * Details included are SQL State, Error code, Exception message.
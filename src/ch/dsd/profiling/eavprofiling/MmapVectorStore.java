@@ -0,0 +1,358 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Baseline without any SQL layer: fixed-width rows of doubles in a memory
+ * mapped file. The file starts with a small header holding the row count,
+ * followed by the rows, mapped in segments of whole rows so that files beyond
+ * 2 GB can be addressed. commit() forces dirty segments and the header to disk.
+ * The connection passed to setConnection is ignored.
+ */
+public class MmapVectorStore implements IDBOperations, IBatchInsert {
+	private static final int HEADER_BYTES = 64;
+	private static final long DEFAULT_SEGMENT_BYTES = 256L << 20;
+
+	private final File file;
+	private final long maxSegmentBytes;
+
+	private int cols;
+	private int[] attrs;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer header;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private final List<DoubleBuffer> segmentViews = new ArrayList<DoubleBuffer>();
+	private int rowsPerSegment;
+	private int count;
+	private int firstDirtySegment;
+
+	public MmapVectorStore() {
+		this(new File("vectors.mmap"), DEFAULT_SEGMENT_BYTES);
+	}
+
+	public MmapVectorStore(File file, long maxSegmentBytes) {
+		this.file = file;
+		this.maxSegmentBytes = maxSegmentBytes;
+	}
+
+	@Override
+	public String getName() {
+		return this.getClass().getName();
+	}
+
+	/**
+	 * Maps the same file; the copy sees the rows committed when it opens it.
+	 */
+	@Override
+	public IDBOperations copy() {
+		return new MmapVectorStore(file, maxSegmentBytes);
+	}
+
+	@Override
+	public void setConnection(Connection con) {
+		/* not backed by a database */
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		rowsPerSegment = getRowsPerSegment(cols);
+		try {
+			unmap();
+			raf = new RandomAccessFile(file, "rw");
+			/* like DROP TABLE: start from an empty store */
+			raf.setLength(0);
+			channel = raf.getChannel();
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			count = 0;
+			firstDirtySegment = 0;
+			header.putInt(0, count);
+			header.putInt(4, cols);
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to create " + file, ioExc);
+		}
+	}
+
+	/**
+	 * Maps an existing store and picks up the committed row count. Instances
+	 * do not coordinate appends, so only one of them may write.
+	 */
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		rowsPerSegment = getRowsPerSegment(cols);
+		try {
+			unmap();
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			if( header.getInt(4) != cols )
+				throw new SQLException(file + " holds rows of " + header.getInt(4) + " columns, not " + cols);
+			count = header.getInt(0);
+			if( count > 0 ) getSegment((count - 1) / rowsPerSegment);
+			firstDirtySegment = segments.size();
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to open " + file, ioExc);
+		}
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		final int seg = count / rowsPerSegment;
+		final DoubleBuffer view = getSegment(seg);
+		final int base = (count % rowsPerSegment) * cols;
+		for( int i = 0; i < cols; i++ ) {
+			view.put(base + i, vals[i]);
+		}
+		if( seg < firstDirtySegment ) firstDirtySegment = seg;
+		count++;
+	}
+
+	@Override
+	public void addBatchVec(double[] vals) throws SQLException {
+		insertVec(vals);
+	}
+
+	@Override
+	public void executeBatch() {
+		/* rows are visible as soon as they are written */
+	}
+
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		while( vecs.hasNext() ) {
+			insertVec(vecs.next());
+		}
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	@Override
+	public double[] getVals(int idx) {
+		return getVals(idx, attrs);
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final double[][] res = new double[ids.length][];
+		for( int i = 0; i < ids.length; i++ ) {
+			res[i] = getVals(ids[i]);
+		}
+		return Arrays.asList(res);
+	}
+
+	/**
+	 * @return a zero-copy view of all columns of the given row
+	 */
+	public DoubleBuffer getRow(int idx) {
+		if( idx < 0 || idx >= count )
+			throw new IndexOutOfBoundsException("No row " + idx);
+		final DoubleBuffer view = segmentViews.get(idx / rowsPerSegment).duplicate();
+		final int base = (idx % rowsPerSegment) * cols;
+		view.position(base);
+		view.limit(base + cols);
+		return view.slice();
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(count, toIdx);
+		final ArrayList<double[]> res = new ArrayList<double[]>(Math.max(0, to - from));
+		for( int idx = from; idx < to; idx++ ) {
+			res.add(getVals(idx));
+		}
+		return res;
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return getRange(0, count);
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) {
+		if( idx < 0 || idx >= count ) return null;
+		final double[] res = new double[attrs.length];
+		final DoubleBuffer view = segmentViews.get(idx / rowsPerSegment);
+		final int base = (idx % rowsPerSegment) * cols;
+		for( int i = 0; i < attrs.length; i++ ) {
+			res[i] = view.get(base + attrs[i]);
+		}
+		return res;
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) {
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(count, toIdx);
+		final ArrayList<double[]> res = new ArrayList<double[]>(Math.max(0, to - from));
+		for( int idx = from; idx < to; idx++ ) {
+			res.add(getVals(idx, attrs));
+		}
+		return res;
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) {
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		for( int idx = 0; idx < count; idx++ ) {
+			final DoubleBuffer view = segmentViews.get(idx / rowsPerSegment);
+			final int base = (idx % rowsPerSegment) * cols;
+			boolean match = true;
+			for( int t = 0; t < filter.size() && match; t++ ) {
+				match = filter.accepts(t, view.get(base + filter.getAttr(t)));
+			}
+			if( match ) {
+				res.add(getVals(idx, attrs));
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) {
+		final AttributeStats res = new AttributeStats(attrs);
+		final int to = Math.min(count, toIdx);
+		for( int idx = Math.max(0, fromIdx); idx < to; idx++ ) {
+			final DoubleBuffer view = segmentViews.get(idx / rowsPerSegment);
+			final int base = (idx % rowsPerSegment) * cols;
+			for( int i = 0; i < attrs.length; i++ ) {
+				res.add(i, view.get(base + attrs[i]));
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) {
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) {
+		final VectorBlock res = VectorBlock.reuse(block, attrs.length);
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(count, toIdx);
+		res.ensureRowCapacity(Math.max(0, to - from));
+		for( int idx = from; idx < to; idx++ ) {
+			final int off = res.addRow();
+			final double[] data = res.getData();
+			final DoubleBuffer view = segmentViews.get(idx / rowsPerSegment);
+			final int base = (idx % rowsPerSegment) * cols;
+			for( int i = 0; i < attrs.length; i++ ) {
+				data[off + i] = view.get(base + attrs[i]);
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) {
+		return getRange(0, count, block);
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		final double[] vals = new double[attrs.length];
+		final int to = Math.min(count, toIdx);
+		for( int idx = Math.max(0, fromIdx); idx < to; idx++ ) {
+			final DoubleBuffer view = segmentViews.get(idx / rowsPerSegment);
+			final int base = (idx % rowsPerSegment) * cols;
+			for( int i = 0; i < attrs.length; i++ ) {
+				vals[i] = view.get(base + attrs[i]);
+			}
+			consumer.accept(vals);
+		}
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		forEachVector(0, count, consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) {
+		/* no cursor to tune */
+	}
+
+	@Override
+	public int getMaxId() {
+		return count - 1;
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		for( int seg = firstDirtySegment; seg < segments.size(); seg++ ) {
+			segments.get(seg).force();
+		}
+		header.putInt(0, count);
+		header.force();
+		firstDirtySegment = segments.size();
+	}
+
+	@Override
+	public void dispose() throws SQLException {
+		try {
+			unmap();
+		} catch (IOException ioExc) {
+			throw new SQLException("Unable to close " + file, ioExc);
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	private int getRowsPerSegment(int cols) {
+		final int rows = (int) Math.min(Integer.MAX_VALUE / (cols * 8), maxSegmentBytes / (cols * 8));
+		if( rows < 1 )
+			throw new IllegalArgumentException("Segment size smaller than a single row");
+		return rows;
+	}
+
+	private DoubleBuffer getSegment(int seg) throws SQLException {
+		while( segments.size() <= seg ) {
+			final long segBytes = (long) rowsPerSegment * cols * 8;
+			final long offset = HEADER_BYTES + segments.size() * segBytes;
+			try {
+				final MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_WRITE, offset, segBytes);
+				mbb.order(ByteOrder.nativeOrder());
+				segments.add(mbb);
+				segmentViews.add(mbb.asDoubleBuffer());
+			} catch (IOException ioExc) {
+				throw new SQLException("Unable to map segment " + segments.size() + " of " + file, ioExc);
+			}
+		}
+		return segmentViews.get(seg);
+	}
+
+	private void unmap() throws IOException {
+		/* mappings are released by the GC once unreferenced */
+		segments.clear();
+		segmentViews.clear();
+		header = null;
+		if( raf != null ) {
+			raf.close();
+			raf = null;
+			channel = null;
+		}
+	}
+}
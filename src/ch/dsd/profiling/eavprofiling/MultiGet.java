@@ -0,0 +1,101 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * Chunking support for multi-get queries. Requested ids are sent as IN lists
+ * of a few fixed sizes, so each layout needs at most CHUNK_SIZES.length
+ * prepared statements; a short last chunk is padded by repeating its last id.
+ * A chunk also maps the ids coming back from the database to their positions
+ * in the request.
+ */
+class MultiGet {
+	static final int[] CHUNK_SIZES = {1, 8, 32, 128, 512};
+	static final int MAX_CHUNK_SIZE = CHUNK_SIZES[CHUNK_SIZES.length - 1];
+
+	/* (id << 32 | position) pairs of the current chunk, sorted by id */
+	private final long[] pairs = new long[MAX_CHUNK_SIZE];
+	private int n;
+	private int statementSize;
+
+	/**
+	 * Index of the statement to use for n ids, i.e. the smallest chunk size
+	 * that fits them.
+	 */
+	static int chunkSlot(int n) {
+		for( int i = 0; i < CHUNK_SIZES.length; i++ ) {
+			if( CHUNK_SIZES[i] >= n ) return i;
+		}
+		return CHUNK_SIZES.length - 1;
+	}
+
+	static String placeholders(int n) {
+		final StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < n; i++ ) {
+			if( i > 0 ) sb.append(",");
+			sb.append("?");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Sets up the chunk starting at ids[from].
+	 *
+	 * @return the number of ids in this chunk
+	 */
+	int init(int[] ids, int from) {
+		n = Math.min(MAX_CHUNK_SIZE, ids.length - from);
+		statementSize = CHUNK_SIZES[chunkSlot(n)];
+		for( int i = 0; i < n; i++ ) {
+			pairs[i] = (((long) ids[from + i]) << 32) | ((from + i) & 0xffffffffL);
+		}
+		Arrays.sort(pairs, 0, n);
+		return n;
+	}
+
+	int getStatementSize() {
+		return statementSize;
+	}
+
+	/**
+	 * @return the id bound to IN list parameter k (0-based) of this chunk
+	 */
+	int getParameter(int k) {
+		return (int) (pairs[Math.min(k, n - 1)] >> 32);
+	}
+
+	/**
+	 * @return the first index into this chunk's pairs for the given id, or -1
+	 */
+	int first(int id) {
+		int lo = 0, hi = n;
+		while( lo < hi ) {
+			final int mid = (lo + hi) >>> 1;
+			if( (int) (pairs[mid] >> 32) < id ) lo = mid + 1; else hi = mid;
+		}
+		return lo < n && (int) (pairs[lo] >> 32) == id ? lo : -1;
+	}
+
+	/**
+	 * @return the request position stored at index i, or -1 once i has moved
+	 * past the entries for id
+	 */
+	int position(int i, int id) {
+		if( i >= n || (int) (pairs[i] >> 32) != id ) return -1;
+		return (int) pairs[i];
+	}
+
+	/**
+	 * Stores vals at every request position of id; repeated ids get copies.
+	 */
+	void assign(double[][] res, int id, double[] vals) {
+		int i = first(id);
+		if( i < 0 ) return;
+		int p;
+		boolean shared = false;
+		while( (p = position(i++, id)) >= 0 ) {
+			res[p] = shared ? vals.clone() : vals;
+			shared = true;
+		}
+	}
+}
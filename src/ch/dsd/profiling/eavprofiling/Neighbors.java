@@ -0,0 +1,96 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * Result of a k-nearest-neighbour query: vector ids ordered by ascending
+ * Euclidean distance. While a query runs it is a bounded max-heap on the
+ * squared distance, so the current k-th best candidate is always at the root.
+ */
+public class Neighbors {
+	private final int k;
+	private final int[] ids;
+	private final double[] dists;
+	private int size = 0;
+
+	Neighbors(int k) {
+		if( k < 1 )
+			throw new IllegalArgumentException("k must be positive");
+		this.k = k;
+		this.ids = new int[k];
+		this.dists = new double[k];
+	}
+
+	/**
+	 * @return the squared distance a candidate has to beat to be kept
+	 */
+	double bound() {
+		return size < k ? Double.POSITIVE_INFINITY : dists[0];
+	}
+
+	void offer(int id, double dist2) {
+		if( size < k ) {
+			int i = size++;
+			while( i > 0 ) {
+				final int parent = (i - 1) >>> 1;
+				if( dists[parent] >= dist2 ) break;
+				ids[i] = ids[parent];
+				dists[i] = dists[parent];
+				i = parent;
+			}
+			ids[i] = id;
+			dists[i] = dist2;
+		} else if( dist2 < dists[0] ) {
+			siftDown(id, dist2, size);
+		}
+	}
+
+	/**
+	 * Sorts the heap in place (ascending) and turns squared distances into
+	 * distances; no further offers are allowed afterwards.
+	 */
+	Neighbors finish() {
+		for( int end = size - 1; end > 0; end-- ) {
+			final int id = ids[end];
+			final double d = dists[end];
+			ids[end] = ids[0];
+			dists[end] = dists[0];
+			siftDown(id, d, end);
+		}
+		for( int i = 0; i < size; i++ ) {
+			dists[i] = Math.sqrt(dists[i]);
+		}
+		return this;
+	}
+
+	private void siftDown(int id, double dist2, int n) {
+		int i = 0;
+		while( true ) {
+			int child = 2 * i + 1;
+			if( child >= n ) break;
+			if( child + 1 < n && dists[child + 1] > dists[child] ) child++;
+			if( dists[child] <= dist2 ) break;
+			ids[i] = ids[child];
+			dists[i] = dists[child];
+			i = child;
+		}
+		ids[i] = id;
+		dists[i] = dist2;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	public double getDistance(int i) {
+		return dists[i];
+	}
+
+	public int[] getIds() {
+		final int[] res = new int[size];
+		System.arraycopy(ids, 0, res, 0, size);
+		return res;
+	}
+}
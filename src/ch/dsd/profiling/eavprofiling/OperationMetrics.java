@@ -0,0 +1,136 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one operation, fed by InstrumentedOperations from any number of
+ * threads. Each counter is updated atomically, but a reader may see a call
+ * counted in some counters and not yet in others.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+	private final String operation;
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLong[] phaseNanos = new AtomicLong[Instrumentation.Phase.values().length];
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong vectors = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	public OperationMetrics(String operation) {
+		this.operation = operation;
+		for( int i = 0; i < phaseNanos.length; i++ ) {
+			phaseNanos[i] = new AtomicLong();
+		}
+	}
+
+	void record(Instrumentation.Trace trace, long nanos, long allocated) {
+		calls.incrementAndGet();
+		if( !trace.ok ) errors.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while( nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos) ) {
+			/* retry */
+		}
+		for( Instrumentation.Phase phase: Instrumentation.Phase.values() ) {
+			phaseNanos[phase.ordinal()].addAndGet(trace.getNanos(phase));
+		}
+		rows.addAndGet(trace.rows);
+		vectors.addAndGet(trace.vectors);
+		bytes.addAndGet(allocated);
+	}
+
+	@Override
+	public String getOperation() {
+		return operation;
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	private double perCall(long value) {
+		final long n = calls.get();
+		return n == 0 ? 0.0 : value / (double) n;
+	}
+
+	@Override
+	public double getAverageMicros() {
+		return perCall(totalNanos.get()) / 1000.0;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return maxNanos.get() / 1000.0;
+	}
+
+	public double getPhaseMicros(Instrumentation.Phase phase) {
+		return perCall(phaseNanos[phase.ordinal()].get()) / 1000.0;
+	}
+
+	@Override
+	public double getExecuteMicros() {
+		return getPhaseMicros(Instrumentation.Phase.EXECUTE);
+	}
+
+	@Override
+	public double getFirstRowMicros() {
+		return getPhaseMicros(Instrumentation.Phase.FIRST_ROW);
+	}
+
+	@Override
+	public double getFetchMicros() {
+		return getPhaseMicros(Instrumentation.Phase.FETCH);
+	}
+
+	@Override
+	public double getDecodeMicros() {
+		return getPhaseMicros(Instrumentation.Phase.DECODE);
+	}
+
+	@Override
+	public double getRowsPerVector() {
+		final long n = vectors.get();
+		return n == 0 ? 0.0 : rows.get() / (double) n;
+	}
+
+	@Override
+	public double getVectorsPerCall() {
+		return perCall(vectors.get());
+	}
+
+	@Override
+	public double getBytesPerCall() {
+		return Instrumentation.isAllocationSupported() ? perCall(bytes.get()) : -1.0;
+	}
+
+	@Override
+	public void reset() {
+		calls.set(0);
+		errors.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+		for( AtomicLong p: phaseNanos ) {
+			p.set(0);
+		}
+		rows.set(0);
+		vectors.set(0);
+		bytes.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-22s calls: %d, errors: %d, avg: %.1f, max: %.1f | execute: %.1f, first row: %.1f, " +
+			"fetch: %.1f, decode: %.1f [us] | rows/vector: %.2f, vectors/call: %.1f, bytes/call: %.0f",
+			operation, getCalls(), getErrors(), getAverageMicros(), getMaxMicros(), getExecuteMicros(),
+			getFirstRowMicros(), getFetchMicros(), getDecodeMicros(), getRowsPerVector(), getVectorsPerCall(),
+			getBytesPerCall());
+	}
+}
@@ -0,0 +1,23 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * JMX view of one operation of an InstrumentedOperations; times are averages
+ * per call in microseconds.
+ */
+public interface OperationMetricsMBean {
+	public String getOperation();
+	public long getCalls();
+	public long getErrors();
+	public double getAverageMicros();
+	public double getMaxMicros();
+	public double getExecuteMicros();
+	public double getFirstRowMicros();
+	public double getFetchMicros();
+	public double getDecodeMicros();
+	/* Result set rows read per vector returned; 0 for layouts without hooks. */
+	public double getRowsPerVector();
+	public double getVectorsPerCall();
+	/* -1 if the VM has no thread allocation counter. */
+	public double getBytesPerCall();
+	public void reset();
+}
@@ -0,0 +1,175 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Partitioned range scans over several connections. The vector_id range of a
+ * scan is split into one contiguous partition per connection; every partition
+ * is scanned by its own IDBOperations instance on its own thread, so each
+ * query runs on the primary key (STDTable, BlobTable) or vectorAttrIdx
+ * (EAVTable) range of its partition. Results are either concatenated in key
+ * order or handed to a consumer as they arrive.
+ */
+public class ParallelScanner {
+	private final IDBOperations prototype;
+	private final ConnectionFactory connections;
+	private final int partitions;
+
+	private final Connection[] cons;
+	private final IDBOperations[] schemas;
+	private ExecutorService executor;
+
+	public ParallelScanner(IDBOperations prototype, ConnectionFactory connections, int partitions) {
+		if( partitions < 1 )
+			throw new IllegalArgumentException("Need at least one partition");
+		this.prototype = prototype;
+		this.connections = connections;
+		this.partitions = partitions;
+		this.cons = new Connection[partitions];
+		this.schemas = new IDBOperations[partitions];
+	}
+
+	/**
+	 * Opens one connection and layout instance per partition on an existing table.
+	 */
+	public void open(int cols, int[] attrs) throws SQLException {
+		for( int i = 0; i < partitions; i++ ) {
+			cons[i] = connections.newConnection();
+			schemas[i] = prototype.copy();
+			schemas[i].setConnection(cons[i]);
+			schemas[i].openTable(cols, attrs);
+		}
+		executor = Executors.newFixedThreadPool(partitions, new ThreadFactory() {
+			private int n = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "ParallelScanner-" + (n++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Scans [fromIdx, toIdx) and returns the vectors in key order.
+	 */
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		final List<Future<List<double[]>>> futures = new ArrayList<Future<List<double[]>>>(partitions);
+		for( int i = 0; i < partitions; i++ ) {
+			final IDBOperations schema = schemas[i];
+			final int from = partitionStart(fromIdx, toIdx, i);
+			final int to = partitionStart(fromIdx, toIdx, i + 1);
+			futures.add(executor.submit(new Callable<List<double[]>>() {
+				@Override
+				public List<double[]> call() throws SQLException {
+					return schema.getRange(from, to);
+				}
+			}));
+		}
+		final List<double[]> res = new ArrayList<double[]>(Math.max(0, toIdx - fromIdx));
+		for( Future<List<double[]>> f: futures ) {
+			res.addAll(await(f));
+		}
+		return res;
+	}
+
+	public List<double[]> getFullTable() throws SQLException {
+		return getRange(0, schemas[0].getMaxId() + 1);
+	}
+
+	/**
+	 * Aggregates every partition on its own connection and merges the results.
+	 */
+	public AttributeStats aggregate(final int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		final List<Future<AttributeStats>> futures = new ArrayList<Future<AttributeStats>>(partitions);
+		for( int i = 0; i < partitions; i++ ) {
+			final IDBOperations schema = schemas[i];
+			final int from = partitionStart(fromIdx, toIdx, i);
+			final int to = partitionStart(fromIdx, toIdx, i + 1);
+			futures.add(executor.submit(new Callable<AttributeStats>() {
+				@Override
+				public AttributeStats call() throws SQLException {
+					return schema.aggregate(attrs, from, to);
+				}
+			}));
+		}
+		final AttributeStats res = new AttributeStats(attrs);
+		for( Future<AttributeStats> f: futures ) {
+			res.merge(await(f));
+		}
+		return res;
+	}
+
+	/**
+	 * Streams [fromIdx, toIdx) to the consumer without any ordering between
+	 * partitions. The consumer is called from several threads concurrently and
+	 * must be thread-safe; each thread reuses its own row buffer.
+	 */
+	public void forEachVector(int fromIdx, int toIdx, final VectorConsumer consumer) throws SQLException {
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>(partitions);
+		for( int i = 0; i < partitions; i++ ) {
+			final IDBOperations schema = schemas[i];
+			final int from = partitionStart(fromIdx, toIdx, i);
+			final int to = partitionStart(fromIdx, toIdx, i + 1);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws SQLException {
+					schema.forEachVector(from, to, consumer);
+					return null;
+				}
+			}));
+		}
+		for( Future<Void> f: futures ) {
+			await(f);
+		}
+	}
+
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		forEachVector(0, schemas[0].getMaxId() + 1, consumer);
+	}
+
+	public void close() throws SQLException {
+		if( executor != null ) {
+			executor.shutdown();
+			executor = null;
+		}
+		for( int i = 0; i < partitions; i++ ) {
+			if( schemas[i] != null ) {
+				schemas[i].dispose();
+				schemas[i] = null;
+			}
+			if( cons[i] != null ) {
+				cons[i].commit();
+				cons[i].close();
+				cons[i] = null;
+			}
+		}
+	}
+
+	private int partitionStart(int fromIdx, int toIdx, int partition) {
+		final long span = Math.max(0, (long) toIdx - fromIdx);
+		return (int) (fromIdx + span * partition / partitions);
+	}
+
+	private static <T> T await(Future<T> f) throws SQLException {
+		try {
+			return f.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a partition", ie);
+		} catch (ExecutionException ee) {
+			if( ee.getCause() instanceof SQLException )
+				throw (SQLException) ee.getCause();
+			throw new SQLException("Partition scan failed", ee.getCause());
+		}
+	}
+}
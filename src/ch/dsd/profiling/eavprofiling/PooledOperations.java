@@ -0,0 +1,271 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Thread-safe IDBOperations over a ConnectionPool: every call leases a
+ * connection with its layout instance, runs on it and returns it. Writes are
+ * committed before the lease is returned, so each insert is a transaction of
+ * its own and commit() has nothing left to do.
+ */
+public class PooledOperations implements IDBOperations {
+
+	private interface Call<T> {
+		public T run( IDBOperations schema ) throws SQLException;
+	}
+
+	private final ConnectionPool pool;
+	private volatile int fetchSize = -1;
+
+	public PooledOperations(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	public ConnectionPool getPool() {
+		return pool;
+	}
+
+	private <T> T call(Call<T> call, boolean write) throws SQLException {
+		final ConnectionPool.Lease lease = pool.acquire();
+		try {
+			final IDBOperations schema = lease.getOperations();
+			if( fetchSize >= 0 ) schema.setFetchSize(fetchSize);
+			final T res = call.run(schema);
+			if( write ) schema.commit();
+			return res;
+		} catch (SQLException sqlExc) {
+			lease.checkFailure(sqlExc);
+			throw sqlExc;
+		} finally {
+			pool.release(lease);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return pool.getPrototype().getName() + " (pooled)";
+	}
+
+	/**
+	 * Another facade over the same pool.
+	 */
+	@Override
+	public IDBOperations copy() {
+		final PooledOperations res = new PooledOperations(pool);
+		res.fetchSize = fetchSize;
+		return res;
+	}
+
+	/**
+	 * Ignored: every call runs on a connection leased from the pool.
+	 */
+	@Override
+	public void setConnection(Connection con) {
+		/* connections come from the pool */
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		pool.createTable(cols, attrs);
+	}
+
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		pool.open(cols, attrs);
+	}
+
+	@Override
+	public void insertVec(final double[] vals) throws SQLException {
+		call(new Call<Void>() {
+			@Override
+			public Void run(IDBOperations schema) throws SQLException {
+				schema.insertVec(vals);
+				return null;
+			}
+		}, true);
+	}
+
+	@Override
+	public void bulkInsert(final Iterator<double[]> vecs) throws SQLException {
+		call(new Call<Void>() {
+			@Override
+			public Void run(IDBOperations schema) throws SQLException {
+				schema.bulkInsert(vecs);
+				return null;
+			}
+		}, true);
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
+	@Override
+	public double[] getVals(final int idx) throws SQLException {
+		return call(new Call<double[]>() {
+			@Override
+			public double[] run(IDBOperations schema) throws SQLException {
+				return schema.getVals(idx);
+			}
+		}, false);
+	}
+
+	@Override
+	public List<double[]> getVals(final int[] ids) throws SQLException {
+		return call(new Call<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getVals(ids);
+			}
+		}, false);
+	}
+
+	@Override
+	public List<double[]> getRange(final int fromIdx, final int toIdx) throws SQLException {
+		return call(new Call<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getRange(fromIdx, toIdx);
+			}
+		}, false);
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return call(new Call<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getFullTable();
+			}
+		}, false);
+	}
+
+	@Override
+	public double[] getVals(final int idx, final int[] attrs) throws SQLException {
+		return call(new Call<double[]>() {
+			@Override
+			public double[] run(IDBOperations schema) throws SQLException {
+				return schema.getVals(idx, attrs);
+			}
+		}, false);
+	}
+
+	@Override
+	public List<double[]> getRange(final int fromIdx, final int toIdx, final int[] attrs) throws SQLException {
+		return call(new Call<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.getRange(fromIdx, toIdx, attrs);
+			}
+		}, false);
+	}
+
+	@Override
+	public List<double[]> select(final int[] attrs, final Predicate filter) throws SQLException {
+		return call(new Call<List<double[]>>() {
+			@Override
+			public List<double[]> run(IDBOperations schema) throws SQLException {
+				return schema.select(attrs, filter);
+			}
+		}, false);
+	}
+
+	@Override
+	public void createAttributeIndex(final int attr) throws SQLException {
+		call(new Call<Void>() {
+			@Override
+			public Void run(IDBOperations schema) throws SQLException {
+				schema.createAttributeIndex(attr);
+				return null;
+			}
+		}, true);
+	}
+
+	@Override
+	public AttributeStats aggregate(final int[] attrs, final int fromIdx, final int toIdx) throws SQLException {
+		return call(new Call<AttributeStats>() {
+			@Override
+			public AttributeStats run(IDBOperations schema) throws SQLException {
+				return schema.aggregate(attrs, fromIdx, toIdx);
+			}
+		}, false);
+	}
+
+	@Override
+	public VectorBlock getRange(final int fromIdx, final int toIdx, final VectorBlock block) throws SQLException {
+		return call(new Call<VectorBlock>() {
+			@Override
+			public VectorBlock run(IDBOperations schema) throws SQLException {
+				return schema.getRange(fromIdx, toIdx, block);
+			}
+		}, false);
+	}
+
+	@Override
+	public VectorBlock getFullTable(final VectorBlock block) throws SQLException {
+		return call(new Call<VectorBlock>() {
+			@Override
+			public VectorBlock run(IDBOperations schema) throws SQLException {
+				return schema.getFullTable(block);
+			}
+		}, false);
+	}
+
+	@Override
+	public void forEachVector(final int fromIdx, final int toIdx, final VectorConsumer consumer) throws SQLException {
+		call(new Call<Void>() {
+			@Override
+			public Void run(IDBOperations schema) throws SQLException {
+				schema.forEachVector(fromIdx, toIdx, consumer);
+				return null;
+			}
+		}, false);
+	}
+
+	@Override
+	public void forEachVector(final VectorConsumer consumer) throws SQLException {
+		call(new Call<Void>() {
+			@Override
+			public Void run(IDBOperations schema) throws SQLException {
+				schema.forEachVector(consumer);
+				return null;
+			}
+		}, false);
+	}
+
+	/**
+	 * Applied to every layout instance as it is leased.
+	 */
+	@Override
+	public void setFetchSize(int rows) {
+		this.fetchSize = rows;
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		return call(new Call<Integer>() {
+			@Override
+			public Integer run(IDBOperations schema) throws SQLException {
+				return schema.getMaxId();
+			}
+		}, false);
+	}
+
+	@Override
+	public void commit() {
+		/* every write was committed on its own connection */
+	}
+
+	/**
+	 * Closes the pool.
+	 */
+	@Override
+	public void dispose() {
+		pool.close();
+	}
+}
@@ -0,0 +1,216 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Filter for IDBOperations.select: a conjunction of value ranges over
+ * attribute ids. Ranges on the same attribute are intersected, so a predicate
+ * holds at most one term per attribute, sorted by attribute id. Missing bounds
+ * are infinite and do not show up in the generated SQL. Instances are
+ * immutable; the bound values are bound as statement parameters, so the SQL
+ * only depends on {@link #getShape()}.
+ */
+public class Predicate {
+	private static final Predicate ALL = new Predicate(new int[0], new double[0], new double[0],
+		new boolean[0], new boolean[0]);
+
+	private final int[] attrs;
+	private final double[] lower;
+	private final double[] upper;
+	private final boolean[] lowerInclusive;
+	private final boolean[] upperInclusive;
+
+	private Predicate(int[] attrs, double[] lower, double[] upper, boolean[] lowerInclusive, boolean[] upperInclusive) {
+		this.attrs = attrs;
+		this.lower = lower;
+		this.upper = upper;
+		this.lowerInclusive = lowerInclusive;
+		this.upperInclusive = upperInclusive;
+	}
+
+	/** Matches every vector. */
+	public static Predicate all() {
+		return ALL;
+	}
+
+	/** lo <= attr <= hi */
+	public static Predicate between(int attr, double lo, double hi) {
+		return range(attr, lo, true, hi, true);
+	}
+
+	/** attr > v */
+	public static Predicate greaterThan(int attr, double v) {
+		return range(attr, v, false, Double.POSITIVE_INFINITY, false);
+	}
+
+	/** attr >= v */
+	public static Predicate atLeast(int attr, double v) {
+		return range(attr, v, true, Double.POSITIVE_INFINITY, false);
+	}
+
+	/** attr < v */
+	public static Predicate lessThan(int attr, double v) {
+		return range(attr, Double.NEGATIVE_INFINITY, false, v, false);
+	}
+
+	/** attr <= v */
+	public static Predicate atMost(int attr, double v) {
+		return range(attr, Double.NEGATIVE_INFINITY, false, v, true);
+	}
+
+	public static Predicate range(int attr, double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+		if( attr < 0 )
+			throw new IllegalArgumentException("Negative attribute id " + attr);
+		if( Double.isNaN(lo) || Double.isNaN(hi) )
+			throw new IllegalArgumentException("NaN bound on attribute " + attr);
+		return new Predicate(new int[] {attr}, new double[] {lo}, new double[] {hi},
+			new boolean[] {loInclusive}, new boolean[] {hiInclusive});
+	}
+
+	/**
+	 * @return a predicate that holds where both this and other hold
+	 */
+	public Predicate and(Predicate other) {
+		final int max = attrs.length + other.attrs.length;
+		final int[] a = new int[max];
+		final double[] lo = new double[max];
+		final double[] hi = new double[max];
+		final boolean[] loInc = new boolean[max];
+		final boolean[] hiInc = new boolean[max];
+		int i = 0, j = 0, n = 0;
+		while( i < attrs.length || j < other.attrs.length ) {
+			final Predicate src;
+			final int k;
+			if( j >= other.attrs.length || (i < attrs.length && attrs[i] < other.attrs[j]) ) {
+				src = this;
+				k = i++;
+			} else if( i >= attrs.length || other.attrs[j] < attrs[i] ) {
+				src = other;
+				k = j++;
+			} else {
+				/* same attribute on both sides: keep the tighter bound at either end */
+				a[n] = attrs[i];
+				if( lower[i] > other.lower[j] ) {
+					lo[n] = lower[i];
+					loInc[n] = lowerInclusive[i];
+				} else if( lower[i] < other.lower[j] ) {
+					lo[n] = other.lower[j];
+					loInc[n] = other.lowerInclusive[j];
+				} else {
+					lo[n] = lower[i];
+					loInc[n] = lowerInclusive[i] && other.lowerInclusive[j];
+				}
+				if( upper[i] < other.upper[j] ) {
+					hi[n] = upper[i];
+					hiInc[n] = upperInclusive[i];
+				} else if( upper[i] > other.upper[j] ) {
+					hi[n] = other.upper[j];
+					hiInc[n] = other.upperInclusive[j];
+				} else {
+					hi[n] = upper[i];
+					hiInc[n] = upperInclusive[i] && other.upperInclusive[j];
+				}
+				n++;
+				i++;
+				j++;
+				continue;
+			}
+			a[n] = src.attrs[k];
+			lo[n] = src.lower[k];
+			hi[n] = src.upper[k];
+			loInc[n] = src.lowerInclusive[k];
+			hiInc[n] = src.upperInclusive[k];
+			n++;
+		}
+		return new Predicate(Arrays.copyOf(a, n), Arrays.copyOf(lo, n), Arrays.copyOf(hi, n),
+			Arrays.copyOf(loInc, n), Arrays.copyOf(hiInc, n));
+	}
+
+	/** @return the number of terms, i.e. of distinct attributes filtered on */
+	public int size() {
+		return attrs.length;
+	}
+
+	public int getAttr(int term) {
+		return attrs[term];
+	}
+
+	public boolean hasLower(int term) {
+		return lower[term] != Double.NEGATIVE_INFINITY;
+	}
+
+	public boolean hasUpper(int term) {
+		return upper[term] != Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return whether the value of the term's attribute lies within its range
+	 */
+	public boolean accepts(int term, double v) {
+		if( lowerInclusive[term] ? v < lower[term] : !(v > lower[term]) ) return false;
+		if( upperInclusive[term] ? v > upper[term] : !(v < upper[term]) ) return false;
+		return true;
+	}
+
+	/**
+	 * Appends the SQL condition of a term on the given column, with one
+	 * parameter marker per finite bound; a term without finite bounds
+	 * becomes "1=1".
+	 */
+	public void appendCondition(StringBuilder sb, int term, String column) {
+		boolean first = true;
+		if( hasLower(term) ) {
+			sb.append(column).append(lowerInclusive[term] ? " >= ?" : " > ?");
+			first = false;
+		}
+		if( hasUpper(term) ) {
+			if( !first ) sb.append(" AND ");
+			sb.append(column).append(upperInclusive[term] ? " <= ?" : " < ?");
+			first = false;
+		}
+		if( first ) {
+			sb.append("1=1");
+		}
+	}
+
+	/**
+	 * Binds the finite bounds of a term in the order appendCondition emitted
+	 * their markers.
+	 *
+	 * @return the next free parameter index
+	 */
+	public int bind(PreparedStatement ps, int term, int param) throws SQLException {
+		if( hasLower(term) ) ps.setDouble(param++, lower[term]);
+		if( hasUpper(term) ) ps.setDouble(param++, upper[term]);
+		return param;
+	}
+
+	/**
+	 * @return a key identifying the generated SQL: attributes, present bounds
+	 * and their inclusiveness, but not the bound values
+	 */
+	public String getShape() {
+		final StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < attrs.length; i++ ) {
+			sb.append(attrs[i]);
+			if( hasLower(i) ) sb.append(lowerInclusive[i] ? "[" : "(");
+			if( hasUpper(i) ) sb.append(upperInclusive[i] ? "]" : ")");
+			sb.append(';');
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		if( attrs.length == 0 ) return "true";
+		final StringBuilder sb = new StringBuilder();
+		for( int i = 0; i < attrs.length; i++ ) {
+			if( i > 0 ) sb.append(" AND ");
+			sb.append(lowerInclusive[i] ? '[' : '(').append(lower[i]).append(", ").append(upper[i])
+				.append(upperInclusive[i] ? ']' : ')').append(" on ").append(attrs[i]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,99 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * Lossy fixed-point quantization: every value is rounded to a multiple of
+ * 2 * maxError, so it comes back within maxError (up to floating point
+ * rounding). The multiples are stored as zig-zag varint deltas of their
+ * predecessor, which takes one or two bytes per value for smooth series. The
+ * step is stored with the data, so chunks stay readable when the configured
+ * error changes. Values must be finite and within 2^53 steps of zero.
+ */
+public class QuantizingCodec implements VectorCodec {
+	private static final int HEADER_SIZE = 4 + 8;
+	private static final double MAX_STEPS = 9007199254740992.0;
+
+	private final double maxError;
+	private final double step;
+
+	public QuantizingCodec(double maxError) {
+		if( !(maxError > 0.0) || Double.isInfinite(maxError) )
+			throw new IllegalArgumentException("Invalid maximum error " + maxError);
+		this.maxError = maxError;
+		this.step = 2.0 * maxError;
+	}
+
+	public double getMaxError() {
+		return maxError;
+	}
+
+	@Override
+	public String getName() {
+		return "Q" + maxError;
+	}
+
+	@Override
+	public int maxEncodedSize(int n) {
+		return HEADER_SIZE + n * 10;
+	}
+
+	@Override
+	public byte[] encode(double[] vals, int n) {
+		final byte[] buf = new byte[maxEncodedSize(n)];
+		putLong(buf, 0, n, 4);
+		putLong(buf, 4, Double.doubleToRawLongBits(step), 8);
+		int pos = HEADER_SIZE;
+		long prev = 0;
+		for( int i = 0; i < n; i++ ) {
+			final double steps = vals[i] / step;
+			if( !(Math.abs(steps) < MAX_STEPS) )
+				throw new IllegalArgumentException("Value " + vals[i] + " cannot be quantized with step " + step);
+			final long q = Math.round(steps);
+			final long delta = q - prev;
+			prev = q;
+			long zz = (delta << 1) ^ (delta >> 63);
+			while( (zz & ~0x7fL) != 0 ) {
+				buf[pos++] = (byte) (zz | 0x80);
+				zz >>>= 7;
+			}
+			buf[pos++] = (byte) zz;
+		}
+		return Arrays.copyOf(buf, pos);
+	}
+
+	@Override
+	public int decode(byte[] data, double[] out) {
+		final int n = (int) getLong(data, 0, 4);
+		final double step = Double.longBitsToDouble(getLong(data, 4, 8));
+		int pos = HEADER_SIZE;
+		long q = 0;
+		for( int i = 0; i < n; i++ ) {
+			long zz = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[pos++];
+				zz |= (b & 0x7fL) << shift;
+				shift += 7;
+			} while( b < 0 );
+			q += (zz >>> 1) ^ -(zz & 1);
+			out[i] = q * step;
+		}
+		return n;
+	}
+
+	private static void putLong(byte[] buf, int off, long v, int len) {
+		for( int b = 0; b < len; b++ ) {
+			buf[off + b] = (byte) (v >>> (8 * b));
+		}
+	}
+
+	private static long getLong(byte[] data, int off, int len) {
+		long v = 0;
+		for( int b = len - 1; b >= 0; b-- ) {
+			v = (v << 8) | (data[off + b] & 0xffL);
+		}
+		return v;
+	}
+}
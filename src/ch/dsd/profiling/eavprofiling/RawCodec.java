@@ -0,0 +1,34 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * Uncompressed little-endian doubles, the format BlobTable stores.
+ */
+public class RawCodec implements VectorCodec {
+
+	@Override
+	public String getName() {
+		return "RAW";
+	}
+
+	@Override
+	public int maxEncodedSize(int n) {
+		return n * 8;
+	}
+
+	@Override
+	public byte[] encode(double[] vals, int n) {
+		return BlobTable.encode(vals, n);
+	}
+
+	@Override
+	public int decode(byte[] data, double[] out) {
+		final int n = data.length / 8;
+		for( int i = 0, off = 0; i < n; i++, off += 8 ) {
+			out[i] = Double.longBitsToDouble(
+				(data[off] & 0xffL) | (data[off + 1] & 0xffL) << 8 | (data[off + 2] & 0xffL) << 16 |
+				(data[off + 3] & 0xffL) << 24 | (data[off + 4] & 0xffL) << 32 | (data[off + 5] & 0xffL) << 40 |
+				(data[off + 6] & 0xffL) << 48 | (data[off + 7] & 0xffL) << 56);
+		}
+		return n;
+	}
+}
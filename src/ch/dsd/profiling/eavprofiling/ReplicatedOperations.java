@@ -0,0 +1,473 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorator keeping an in-memory replica of the table in one row-major
+ * double[]. Opening the table loads a snapshot; after that only the vectors
+ * above the high-water mark are fetched, with getMaxId and a bounded
+ * getRange, so the replica follows appends without reloading the table.
+ * This works for every layout assigning vector ids in ascending order from
+ * 0: STDTable's identity column as well as EAVTable's currentId.
+ *
+ * Reads are served from the replica as long as its last sync is at most
+ * maxStalenessMillis old; an older replica is tailed by the reading thread
+ * first, and commit() makes the next read tail. Missing ids below the
+ * delegate's max id may belong to a transaction that has not committed
+ * yet, so the tail stops there and only skips the id once it has been
+ * missing for gapTimeoutMillis. Ad hoc projections within the replicated
+ * attrs are served from the replica too; select and aggregate always go to
+ * the delegate.
+ *
+ * Readers never block: every sync publishes a new immutable view. Syncing
+ * itself is serialized, and the decorator is as thread-safe as its
+ * delegate; background tailing needs a thread-safe one such as
+ * PooledOperations.
+ */
+public class ReplicatedOperations implements IDBOperations {
+	public static final long DEFAULT_GAP_TIMEOUT_MILLIS = 1000;
+
+	/**
+	 * The vectors [0, size) as of one sync. data is only written beyond size
+	 * afterwards, and missing is copied before it changes.
+	 */
+	private static final class Replica {
+		final double[] data;
+		final int size;
+		final BitSet missing;
+		final long syncedNanos;
+
+		Replica(double[] data, int size, BitSet missing, long syncedNanos) {
+			this.data = data;
+			this.size = size;
+			this.missing = missing;
+			this.syncedNanos = syncedNanos;
+		}
+
+		boolean contains(int idx) {
+			return idx >= 0 && idx < size && !missing.get(idx);
+		}
+	}
+
+	private final IDBOperations delegate;
+	private final long maxStalenessNanos;
+	private final long gapTimeoutNanos;
+	private int[] attrs;
+	private int stride;
+
+	private volatile Replica replica;
+	/* set by commit(), cleared when a sync starts */
+	private volatile boolean stale = false;
+
+	/* state of the tail, guarded by syncLock */
+	private final Object syncLock = new Object();
+	private VectorBlock scratch;
+	private int gapId = -1;
+	private long gapSinceNanos;
+
+	private ScheduledExecutorService tailer;
+
+	private final AtomicLong syncs = new AtomicLong();
+	private final AtomicLong tailed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+
+	public ReplicatedOperations(IDBOperations delegate, long maxStalenessMillis) {
+		this(delegate, maxStalenessMillis, DEFAULT_GAP_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param maxStalenessMillis age of the replica up to which reads do not tail first, 0 to tail on every read
+	 * @param gapTimeoutMillis   how long a missing id holds the tail back before it is taken to be rolled back
+	 */
+	public ReplicatedOperations(IDBOperations delegate, long maxStalenessMillis, long gapTimeoutMillis) {
+		this.delegate = delegate;
+		this.maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+		this.gapTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(gapTimeoutMillis);
+	}
+
+	public IDBOperations getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName() + " (replica)";
+	}
+
+	/**
+	 * Wraps a copy of the delegate in a replica of its own.
+	 */
+	@Override
+	public IDBOperations copy() {
+		return new ReplicatedOperations(delegate.copy(), TimeUnit.NANOSECONDS.toMillis(maxStalenessNanos),
+			TimeUnit.NANOSECONDS.toMillis(gapTimeoutNanos));
+	}
+
+	@Override
+	public void setConnection(Connection con) throws SQLException {
+		delegate.setConnection(con);
+	}
+
+	@Override
+	public void createTable(int cols, int[] attrs) throws SQLException {
+		delegate.createTable(cols, attrs);
+		reset(attrs);
+	}
+
+	/**
+	 * Opens the table and loads the snapshot.
+	 */
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		delegate.openTable(cols, attrs);
+		reset(attrs);
+		sync();
+	}
+
+	private void reset(int[] attrs) {
+		synchronized( syncLock ) {
+			this.attrs = attrs;
+			this.stride = attrs.length;
+			gapId = -1;
+			replica = new Replica(new double[0], 0, new BitSet(), System.nanoTime());
+			stale = true;
+		}
+	}
+
+	/**
+	 * Throws the replica away and loads a new snapshot, e.g. after rows it
+	 * had already tailed through the delegate's connection were rolled back.
+	 */
+	public void resync() throws SQLException {
+		reset(attrs);
+		sync();
+	}
+
+	/**
+	 * Fetches the vectors appended since the last sync.
+	 */
+	public void sync() throws SQLException {
+		synchronized( syncLock ) {
+			tail();
+		}
+	}
+
+	private Replica fresh() throws SQLException {
+		final Replica r = replica;
+		if( !stale && System.nanoTime() - r.syncedNanos <= maxStalenessNanos ) return r;
+		synchronized( syncLock ) {
+			/* another reader may have synced while this one waited */
+			if( stale || System.nanoTime() - replica.syncedNanos > maxStalenessNanos ) tail();
+			return replica;
+		}
+	}
+
+	/* must hold syncLock */
+	private void tail() throws SQLException {
+		stale = false;
+		final long start = System.nanoTime();
+		final Replica cur = replica;
+		final int next = cur.size;
+		final int max = delegate.getMaxId();
+		syncs.incrementAndGet();
+		if( max < next ) {
+			replica = new Replica(cur.data, cur.size, cur.missing, start);
+			return;
+		}
+		final int n = max + 1 - next;
+		final double[] data = ensureCapacity(cur.data, next + n);
+		BitSet missing = cur.missing;
+		int size = next;
+		scratch = delegate.getRange(next, max + 1, scratch);
+		if( scratch.getRows() == n ) {
+			System.arraycopy(scratch.getData(), 0, data, size * stride, n * stride);
+			size += n;
+			gapId = -1;
+		} else {
+			/* some ids are missing; find out which */
+			final int[] ids = new int[n];
+			for( int i = 0; i < n; i++ ) {
+				ids[i] = next + i;
+			}
+			final List<double[]> vecs = delegate.getVals(ids);
+			for( int i = 0; i < n; i++ ) {
+				final double[] vals = vecs.get(i);
+				if( vals == null ) {
+					if( ids[i] != gapId ) {
+						gapId = ids[i];
+						gapSinceNanos = start;
+					}
+					if( start - gapSinceNanos < gapTimeoutNanos ) break;
+					if( missing == cur.missing ) missing = (BitSet) missing.clone();
+					missing.set(ids[i]);
+					skipped.incrementAndGet();
+				} else {
+					System.arraycopy(vals, 0, data, size * stride, stride);
+				}
+				size++;
+			}
+		}
+		tailed.addAndGet(size - next);
+		replica = new Replica(data, size, missing, start);
+	}
+
+	private double[] ensureCapacity(double[] data, int rows) {
+		if( (long) rows * stride <= data.length ) return data;
+		final long newRows = Math.max(rows, data.length / Math.max(stride, 1) * 2L);
+		if( newRows * stride > Integer.MAX_VALUE )
+			throw new IllegalStateException("Replica of " + delegate.getName() + " exceeds one array");
+		return Arrays.copyOf(data, (int) (newRows * stride));
+	}
+
+	/**
+	 * Tails the delegate every periodMillis from a daemon thread until
+	 * stopTailing(); the delegate must be thread-safe.
+	 */
+	public synchronized void startTailing(long periodMillis) {
+		stopTailing();
+		tailer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "ReplicatedOperations-tail");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		tailer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sync();
+				} catch (SQLException sqlExc) {
+					sqlExc.printStackTrace(System.err);
+				}
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopTailing() {
+		if( tailer != null ) {
+			tailer.shutdownNow();
+			tailer = null;
+		}
+	}
+
+	/* Vectors held by the replica, including skipped ids; the next id to tail. */
+	public int getSize() {
+		return replica.size;
+	}
+
+	public long getAgeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - replica.syncedNanos);
+	}
+
+	public long getSyncs() {
+		return syncs.get();
+	}
+
+	public long getTailedVectors() {
+		return tailed.get();
+	}
+
+	/* Ids given up on after gapTimeoutMillis; read as missing from then on. */
+	public long getSkippedIds() {
+		return skipped.get();
+	}
+
+	@Override
+	public void insertVec(double[] vals) throws SQLException {
+		delegate.insertVec(vals);
+	}
+
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		delegate.bulkInsert(vecs);
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		delegate.bulkInsert(vecs);
+	}
+
+	private double[] copy(Replica r, int idx) {
+		final double[] res = new double[stride];
+		System.arraycopy(r.data, idx * stride, res, 0, stride);
+		return res;
+	}
+
+	@Override
+	public double[] getVals(int idx) throws SQLException {
+		final Replica r = fresh();
+		return r.contains(idx) ? copy(r, idx) : null;
+	}
+
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final Replica r = fresh();
+		final double[][] res = new double[ids.length][];
+		for( int i = 0; i < ids.length; i++ ) {
+			if( r.contains(ids[i]) ) res[i] = copy(r, ids[i]);
+		}
+		return Arrays.asList(res);
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
+		final Replica r = fresh();
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		for( int idx = Math.max(0, fromIdx); idx < Math.min(toIdx, r.size); idx++ ) {
+			if( !r.missing.get(idx) ) res.add(copy(r, idx));
+		}
+		return res;
+	}
+
+	@Override
+	public List<double[]> getFullTable() throws SQLException {
+		return getRange(0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return positions of attrs in the replicated attrs, null if one is not replicated
+	 */
+	private int[] positions(int[] attrs) {
+		final int[] pos = new int[attrs.length];
+		for( int i = 0; i < attrs.length; i++ ) {
+			pos[i] = -1;
+			for( int j = 0; j < this.attrs.length; j++ ) {
+				if( this.attrs[j] == attrs[i] ) {
+					pos[i] = j;
+					break;
+				}
+			}
+			if( pos[i] < 0 ) return null;
+		}
+		return pos;
+	}
+
+	private static double[] project(Replica r, int stride, int idx, int[] pos) {
+		final double[] res = new double[pos.length];
+		for( int i = 0; i < pos.length; i++ ) {
+			res[i] = r.data[idx * stride + pos[i]];
+		}
+		return res;
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		final int[] pos = positions(attrs);
+		if( pos == null ) return delegate.getVals(idx, attrs);
+		final Replica r = fresh();
+		return r.contains(idx) ? project(r, stride, idx, pos) : null;
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		final int[] pos = positions(attrs);
+		if( pos == null ) return delegate.getRange(fromIdx, toIdx, attrs);
+		final Replica r = fresh();
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		for( int idx = Math.max(0, fromIdx); idx < Math.min(toIdx, r.size); idx++ ) {
+			if( !r.missing.get(idx) ) res.add(project(r, stride, idx, pos));
+		}
+		return res;
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		return delegate.select(attrs, filter);
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) throws SQLException {
+		delegate.createAttributeIndex(attr);
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		return delegate.aggregate(attrs, fromIdx, toIdx);
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		final Replica r = fresh();
+		final VectorBlock res = VectorBlock.reuse(block, stride);
+		final int from = Math.max(0, fromIdx);
+		final int to = Math.min(toIdx, r.size);
+		if( from >= to ) return res;
+		res.ensureRowCapacity(to - from);
+		if( r.missing.isEmpty() ) {
+			/* one copy for the whole range */
+			for( int idx = from; idx < to; idx++ ) {
+				res.addRow();
+			}
+			System.arraycopy(r.data, from * stride, res.getData(), 0, (to - from) * stride);
+			return res;
+		}
+		for( int idx = from; idx < to; idx++ ) {
+			if( r.missing.get(idx) ) continue;
+			System.arraycopy(r.data, idx * stride, res.getData(), res.addRow(), stride);
+		}
+		return res;
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return getRange(0, Integer.MAX_VALUE, block);
+	}
+
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		final Replica r = fresh();
+		final double[] vals = new double[stride];
+		for( int idx = Math.max(0, fromIdx); idx < Math.min(toIdx, r.size); idx++ ) {
+			if( r.missing.get(idx) ) continue;
+			System.arraycopy(r.data, idx * stride, vals, 0, stride);
+			consumer.accept(vals);
+		}
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		forEachVector(0, Integer.MAX_VALUE, consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		delegate.setFetchSize(rows);
+	}
+
+	/**
+	 * Highest id in the replica; the tail never ends on a skipped id.
+	 */
+	@Override
+	public int getMaxId() throws SQLException {
+		return fresh().size - 1;
+	}
+
+	/**
+	 * Commits and makes the next read tail, so writes through this decorator
+	 * are visible to its own reads.
+	 */
+	@Override
+	public void commit() throws SQLException {
+		delegate.commit();
+		stale = true;
+	}
+
+	@Override
+	public void dispose() throws SQLException {
+		stopTailing();
+		delegate.dispose();
+	}
+}
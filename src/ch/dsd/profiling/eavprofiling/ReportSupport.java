@@ -0,0 +1,76 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Driver loading, connection handling and output helpers shared by the
+ * stand-alone reports. All of them run against the embedded database Main
+ * uses, in the working directory.
+ */
+final class ReportSupport {
+	static final String dbName = "derbyDB";
+	static final String user = "user1";
+
+	private static final String driver = "org.apache.derby.jdbc.EmbeddedDriver";
+	private static final String SQL_STATE_SYSTEM_SHUTDOWN = "XJ015";
+
+	private ReportSupport() {
+	}
+
+	static void loadDriver() throws Exception {
+		Class.forName(driver).newInstance();
+	}
+
+	/**
+	 * Factory for the report database, created on demand. loadDriver() must
+	 * have been called before the first connection is opened.
+	 */
+	static ConnectionFactory connections() {
+		return DerbyConnectionFactory.embedded(dbName, user, user);
+	}
+
+	/**
+	 * Closes con if it is open. Failures are printed, not thrown, so this can
+	 * run in a finally block.
+	 */
+	static void close(Connection con) {
+		try {
+			if( con != null ) con.close();
+		} catch (SQLException sqlExc) {
+			sqlExc.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * Shuts the embedded engine down. A successful shutdown always raises
+	 * XJ015, which is not reported.
+	 */
+	static void shutdown() {
+		try {
+			DriverManager.getConnection("jdbc:derby:;shutdown=true");
+		} catch (SQLException se) {
+			if( !SQL_STATE_SYSTEM_SHUTDOWN.equals(se.getSQLState()) )
+				Main.printSQLException(se);
+		}
+	}
+
+	static double[] getRandomValues(Random rnd, int n) {
+		double[] res = new double[n];
+		for( int i = 0; i < n; i++ ) {
+			res[i] = rnd.nextDouble();
+		}
+		return res;
+	}
+
+	static void printLatencies(String label, LatencyHistogram hist) {
+		System.out.println(String.format(
+			"\t\t %s n: %d, avg: %.3f, p50: %.3f, p90: %.3f, p99: %.3f, p99.9: %.3f, max: %.3f [us]",
+			label, hist.getCount(), hist.getAverage() / 1000.0,
+			hist.getPercentile(50.0) / 1000.0, hist.getPercentile(90.0) / 1000.0,
+			hist.getPercentile(99.0) / 1000.0, hist.getPercentile(99.9) / 1000.0, hist.getMax() / 1000.0
+		));
+	}
+}
@@ -2,6 +2,8 @@ package ch.dsd.profiling.eavprofiling;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -9,21 +11,30 @@ import java.util.List;
  * User: dsd
  * Date: 5/21/13
  * Time: 10:17 AM
+ *
+ * Row layout: one column per attribute. An instance is bound to one
+ * connection and is not thread-safe; threads share a table through
+ * ConnectionPool and PooledOperations.
  */
-public class STDTable implements IDBOperations {
+public class STDTable implements IDBOperations, IBatchInsert {
 	public static final String SQL_STATE_NOT_EXIST = "42Y55";
-	private static final String SQL_TABLE_NAME = "vectorsStd";
+	public static final String SQL_STATE_EXISTS = "X0Y32";
+	public static final String SQL_TABLE_NAME = "vectorsStd";
 	private static final String SQL_COL_PREFIX = "C";
 	private static final String SQL_DROP_TABLE = "DROP TABLE " + SQL_TABLE_NAME;
 	private static final String SQL_KEY_NAME = "vector_id";
 	private static final String SQL_CREATE_TABLE =
-		"CREATE TABLE " + SQL_TABLE_NAME + "("+SQL_KEY_NAME+" INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY, %s)";
+		"CREATE TABLE " + SQL_TABLE_NAME + "("+SQL_KEY_NAME+" INT PRIMARY KEY GENERATED ALWAYS AS IDENTITY (START WITH 0), %s)";
 	private static final String SQL_SELECT_FROM_WHERE =
 		"SELECT %s FROM " + SQL_TABLE_NAME + " WHERE %s";
 	private static final String SQL_SELECT_FROM =
 		"SELECT %s FROM " + SQL_TABLE_NAME;
 	private static final String SQL_INSERT_INTO_VALUES =
 		"INSERT INTO " + SQL_TABLE_NAME + " (%s) VALUES (%s)";
+	private static final String SQL_CREATE_ATTR_INDEX =
+		"CREATE INDEX " + SQL_TABLE_NAME + "%sIdx ON " + SQL_TABLE_NAME + " (%s)";
+	private static final String SQL_SELECT_MAX_KEY =
+		"SELECT MAX(" + SQL_KEY_NAME + ") FROM " + SQL_TABLE_NAME;
 
 	private int cols;
 	private int[] attrs;
@@ -33,12 +44,21 @@ public class STDTable implements IDBOperations {
 	private PreparedStatement psInsertValues;
 	private PreparedStatement psRangeValues;
 	private PreparedStatement psFullTable;
+	private final PreparedStatement[] psMultiGet = new PreparedStatement[MultiGet.CHUNK_SIZES.length];
+	private final MultiGet multiGet = new MultiGet();
+	private final StatementCache projections = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+	private int fetchSize = 0;
 
 	@Override
 	public String getName() {
 		return this.getClass().getName();
 	}
 
+	@Override
+	public IDBOperations copy() {
+		return new STDTable();
+	}
+
 	@Override
 	public void setConnection(Connection con) {
 		this.con = con;
@@ -63,6 +83,14 @@ public class STDTable implements IDBOperations {
 		s.close();
 	}
 
+	@Override
+	public void openTable(int cols, int[] attrs) throws SQLException {
+		this.cols = cols;
+		this.attrs = attrs;
+		con.setAutoCommit(false);
+		prepareStatements();
+	}
+
 	@Override
 	public void insertVec(double[] vals) throws SQLException {
 		for( int i = 1; i < this.cols+1; i++ ) {
@@ -71,36 +99,121 @@ public class STDTable implements IDBOperations {
 		psInsertValues.executeUpdate();
 	}
 
+	@Override
+	public void addBatchVec(double[] vals) throws SQLException {
+		for( int i = 1; i < this.cols+1; i++ ) {
+			psInsertValues.setDouble(i, vals[i-1]);
+		}
+		psInsertValues.addBatch();
+	}
+
+	@Override
+	public void executeBatch() throws SQLException {
+		psInsertValues.executeBatch();
+	}
+
+	@Override
+	public void bulkInsert(Iterator<double[]> vecs) throws SQLException {
+		final DerbyImport imp = new DerbyImport();
+		try {
+			while( vecs.hasNext() ) {
+				imp.writeRow(vecs.next(), this.cols);
+			}
+		} catch (SQLException sqlExc) {
+			imp.dispose();
+			throw sqlExc;
+		}
+		/* vector_id is generated, so only the value columns are imported */
+		imp.load(con, SQL_TABLE_NAME.toUpperCase(), getColumnNames());
+	}
+
+	@Override
+	public void bulkInsert(double[][] vecs) throws SQLException {
+		bulkInsert(Arrays.asList(vecs).iterator());
+	}
+
 	@Override
 	public double[] getVals(int idx) throws SQLException {
 		ResultSet rs;
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
 		psGetValues.setInt(1, idx);
 		rs = psGetValues.executeQuery();
+		t = Instrumentation.executed(trace, t);
 		if( rs.next() ) {
+			t = Instrumentation.fetched(trace, t);
 			final double[] res = new double[attrs.length];
 			for( int i = 0; i < attrs.length; i++ ) {
 				res[i] = rs.getDouble(i+1);
 			}
+			Instrumentation.decoded(trace, t);
 			return res;
 		}
 		rs.close();
+		Instrumentation.finished(trace, t);
 		return null;
 	}
 
+	@Override
+	public List<double[]> getVals(int[] ids) throws SQLException {
+		final double[][] res = new double[ids.length][];
+		final Instrumentation.Trace trace = Instrumentation.current();
+		int off = 0;
+		while( off < ids.length ) {
+			final int n = multiGet.init(ids, off);
+			final PreparedStatement ps = getMultiGetStatement(multiGet.getStatementSize());
+			for( int k = 0; k < multiGet.getStatementSize(); k++ ) {
+				ps.setInt(k+1, multiGet.getParameter(k));
+			}
+			long t = Instrumentation.start(trace);
+			final ResultSet rs = ps.executeQuery();
+			t = Instrumentation.executed(trace, t);
+			while( rs.next() ) {
+				t = Instrumentation.fetched(trace, t);
+				final double[] vals = new double[attrs.length];
+				for( int i = 0; i < attrs.length; i++ ) {
+					vals[i] = rs.getDouble(i+2);
+				}
+				multiGet.assign(res, rs.getInt(1), vals);
+				t = Instrumentation.decoded(trace, t);
+			}
+			Instrumentation.finished(trace, t);
+			rs.close();
+			off += n;
+		}
+		return Arrays.asList(res);
+	}
+
+	private PreparedStatement getMultiGetStatement(int size) throws SQLException {
+		final int slot = MultiGet.chunkSlot(size);
+		if( psMultiGet[slot] == null ) {
+			psMultiGet[slot] = con.prepareStatement(String.format(SQL_SELECT_FROM_WHERE,
+				SQL_KEY_NAME + ", " + getColumnNamesFromAttrs(this.attrs),
+				SQL_KEY_NAME + " IN (" + MultiGet.placeholders(size) + ")"));
+		}
+		return psMultiGet[slot];
+	}
+
 	@Override
 	public List<double[]> getRange(int fromIdx, int toIdx) throws SQLException {
 		ResultSet rs;
 		final ArrayList<double[]> res = new ArrayList<double[]>();
 		psRangeValues.setInt(1, fromIdx);
 		psRangeValues.setInt(2, toIdx);
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
 		rs = psRangeValues.executeQuery();
+		t = Instrumentation.executed(trace, t);
 		while( rs.next() ) {
+			t = Instrumentation.fetched(trace, t);
 			final double[] vals = new double[this.attrs.length];
 			for( int i = 0; i < attrs.length; i++ ) {
 				vals[i] = rs.getDouble(i+1);
 			}
 			res.add(vals);
+			t = Instrumentation.decoded(trace, t);
 		}
+		Instrumentation.finished(trace, t);
 		rs.close();
 		return res;
 	}
@@ -109,18 +222,243 @@ public class STDTable implements IDBOperations {
 	public List<double[]> getFullTable() throws SQLException {
 		ResultSet rs;
 		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
 		rs = psFullTable.executeQuery();
+		t = Instrumentation.executed(trace, t);
 		while( rs.next() ) {
+			t = Instrumentation.fetched(trace, t);
 			final double[] vals = new double[this.attrs.length];
 			for( int i = 0; i < attrs.length; i++ ) {
 				vals[i] = rs.getDouble(i+1);
 			}
 			res.add(vals);
+			t = Instrumentation.decoded(trace, t);
+		}
+		Instrumentation.finished(trace, t);
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public double[] getVals(int idx, int[] attrs) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("get", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			ps = projections.prepare(con, key, String.format(
+				SQL_SELECT_FROM_WHERE, getColumnNamesFromAttrs(canon), SQL_KEY_NAME + "=?"));
+		}
+		ps.setInt(1, idx);
+		final ResultSet rs = ps.executeQuery();
+		try {
+			if( rs.next() ) {
+				return readProjection(rs, StatementCache.positions(canon, attrs));
+			}
+			return null;
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Override
+	public List<double[]> getRange(int fromIdx, int toIdx, int[] attrs) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("range", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			ps = projections.prepare(con, key, String.format(SQL_SELECT_FROM_WHERE,
+				getColumnNamesFromAttrs(canon), SQL_KEY_NAME + ">=? AND " + SQL_KEY_NAME + "<?"));
+		}
+		ps.setInt(1, fromIdx);
+		ps.setInt(2, toIdx);
+		final int[] pos = StatementCache.positions(canon, attrs);
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
+		final ResultSet rs = ps.executeQuery();
+		t = Instrumentation.executed(trace, t);
+		while( rs.next() ) {
+			t = Instrumentation.fetched(trace, t);
+			res.add(readProjection(rs, pos));
+			t = Instrumentation.decoded(trace, t);
+		}
+		Instrumentation.finished(trace, t);
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public List<double[]> select(int[] attrs, Predicate filter) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("select " + filter.getShape(), canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			final StringBuilder where = new StringBuilder();
+			for( int t = 0; t < filter.size(); t++ ) {
+				if( t > 0 ) where.append(" AND ");
+				filter.appendCondition(where, t, getColName(filter.getAttr(t)));
+			}
+			if( filter.size() == 0 ) where.append("1=1");
+			where.append(" ORDER BY ").append(SQL_KEY_NAME);
+			ps = projections.prepare(con, key, String.format(SQL_SELECT_FROM_WHERE,
+				getColumnNamesFromAttrs(canon), where));
+		}
+		int param = 1;
+		for( int t = 0; t < filter.size(); t++ ) {
+			param = filter.bind(ps, t, param);
 		}
+		final int[] pos = StatementCache.positions(canon, attrs);
+		final ArrayList<double[]> res = new ArrayList<double[]>();
+		final ResultSet rs = ps.executeQuery();
+		while( rs.next() ) {
+			res.add(readProjection(rs, pos));
+		}
+		rs.close();
+		return res;
+	}
+
+	@Override
+	public void createAttributeIndex(int attr) throws SQLException {
+		final Statement s = con.createStatement();
+		try {
+			s.execute(String.format(SQL_CREATE_ATTR_INDEX, getColName(attr), getColName(attr)));
+			commit();
+		} catch (SQLException sqlExc) {
+			if( !SQL_STATE_EXISTS.equals(sqlExc.getSQLState()) )
+				throw sqlExc;
+		} finally {
+			s.close();
+		}
+	}
+
+	@Override
+	public AttributeStats aggregate(int[] attrs, int fromIdx, int toIdx) throws SQLException {
+		final int[] canon = StatementCache.canonicalize(attrs);
+		final String key = StatementCache.key("aggregate", canon);
+		PreparedStatement ps = projections.get(key);
+		if( ps == null ) {
+			final StringBuilder sb = new StringBuilder();
+			for( int i = 0; i < canon.length; i++ ) {
+				final String c = getColName(canon[i]);
+				if( i > 0 ) sb.append(", ");
+				sb.append(String.format("COUNT(%s), SUM(%s), SUM(%s*%s), MIN(%s), MAX(%s)", c, c, c, c, c, c));
+			}
+			ps = projections.prepare(con, key, String.format(SQL_SELECT_FROM_WHERE, sb,
+				SQL_KEY_NAME + ">=? AND " + SQL_KEY_NAME + "<?"));
+		}
+		ps.setInt(1, fromIdx);
+		ps.setInt(2, toIdx);
+		final int[] pos = StatementCache.positions(canon, attrs);
+		final AttributeStats res = new AttributeStats(attrs);
+		final ResultSet rs = ps.executeQuery();
+		if( rs.next() ) {
+			for( int i = 0; i < pos.length; i++ ) {
+				final int c = pos[i] * 5;
+				res.add(i, rs.getLong(c+1), rs.getDouble(c+2), rs.getDouble(c+3), rs.getDouble(c+4), rs.getDouble(c+5));
+			}
+		}
+		rs.close();
+		return res;
+	}
+
+	private double[] readProjection(ResultSet rs, int[] pos) throws SQLException {
+		final double[] vals = new double[pos.length];
+		for( int i = 0; i < pos.length; i++ ) {
+			vals[i] = rs.getDouble(pos[i]+1);
+		}
+		return vals;
+	}
+
+	@Override
+	public VectorBlock getRange(int fromIdx, int toIdx, VectorBlock block) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		return fillBlock(psRangeValues, block);
+	}
+
+	@Override
+	public VectorBlock getFullTable(VectorBlock block) throws SQLException {
+		return fillBlock(psFullTable, block);
+	}
+
+	private VectorBlock fillBlock(PreparedStatement ps, VectorBlock block) throws SQLException {
+		final VectorBlock res = VectorBlock.reuse(block, attrs.length);
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
+		final ResultSet rs = ps.executeQuery();
+		t = Instrumentation.executed(trace, t);
+		while( rs.next() ) {
+			t = Instrumentation.fetched(trace, t);
+			final int off = res.addRow();
+			final double[] data = res.getData();
+			for( int i = 0; i < attrs.length; i++ ) {
+				data[off + i] = rs.getDouble(i+1);
+			}
+			t = Instrumentation.decoded(trace, t);
+		}
+		Instrumentation.finished(trace, t);
 		rs.close();
 		return res;
 	}
 
+	@Override
+	public void forEachVector(int fromIdx, int toIdx, VectorConsumer consumer) throws SQLException {
+		psRangeValues.setInt(1, fromIdx);
+		psRangeValues.setInt(2, toIdx);
+		stream(psRangeValues, consumer);
+	}
+
+	@Override
+	public void forEachVector(VectorConsumer consumer) throws SQLException {
+		stream(psFullTable, consumer);
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		this.fetchSize = rows;
+		/* applied again whenever the statements are prepared */
+		if( psRangeValues != null ) {
+			psRangeValues.setFetchSize(rows);
+			psFullTable.setFetchSize(rows);
+		}
+	}
+
+	private void stream(PreparedStatement ps, VectorConsumer consumer) throws SQLException {
+		final double[] vals = new double[attrs.length];
+		final Instrumentation.Trace trace = Instrumentation.current();
+		long t = Instrumentation.start(trace);
+		final ResultSet rs = ps.executeQuery();
+		t = Instrumentation.executed(trace, t);
+		try {
+			while( rs.next() ) {
+				t = Instrumentation.fetched(trace, t);
+				for( int i = 0; i < attrs.length; i++ ) {
+					vals[i] = rs.getDouble(i+1);
+				}
+				Instrumentation.decoded(trace, t);
+				consumer.accept(vals);
+				/* time spent in the consumer is not the layout's */
+				t = Instrumentation.start(trace);
+			}
+			Instrumentation.finished(trace, t);
+		} finally {
+			rs.close();
+		}
+	}
+
+	@Override
+	public int getMaxId() throws SQLException {
+		final Statement s = con.createStatement();
+		try {
+			final ResultSet rs = s.executeQuery(SQL_SELECT_MAX_KEY);
+			final int max = rs.next() ? rs.getInt(1) : 0;
+			return rs.wasNull() ? -1 : max;
+		} finally {
+			s.close();
+		}
+	}
+
 	@Override
 	public void commit() throws SQLException {
 		con.commit();
@@ -176,6 +514,13 @@ public class STDTable implements IDBOperations {
 				ps.close();
 			}
 		}
+		for( int i = 0; i < psMultiGet.length; i++ ) {
+			if( psMultiGet[i] != null && !psMultiGet[i].isClosed() ) {
+				psMultiGet[i].close();
+			}
+			psMultiGet[i] = null;
+		}
+		projections.clear();
 	}
 
 	private void prepareStatements() throws SQLException {
@@ -187,11 +532,13 @@ public class STDTable implements IDBOperations {
 			SQL_INSERT_INTO_VALUES, getColumnNames(), getColumnPlaceholders(this.cols))
 		);
 		psRangeValues = con.prepareStatement(String.format(
-			SQL_SELECT_FROM_WHERE, getColumnNamesFromAttrs(this.attrs), SQL_KEY_NAME + ">=? AND " + SQL_KEY_NAME +"<=?"
+			SQL_SELECT_FROM_WHERE, getColumnNamesFromAttrs(this.attrs), SQL_KEY_NAME + ">=? AND " + SQL_KEY_NAME +"<?"
 		));
 		psFullTable = con.prepareStatement(String.format(
 			SQL_SELECT_FROM, getColumnNamesFromAttrs(this.attrs)
 		));
+		psRangeValues.setFetchSize(fetchSize);
+		psFullTable.setFetchSize(fetchSize);
 	}
 
 	private String getColumnPlaceholders(int n) {
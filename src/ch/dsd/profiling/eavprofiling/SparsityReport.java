@@ -0,0 +1,93 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Storage size and read latency of STDTable against a sparse EAVTable while
+ * the fraction of non-zero values goes down. For every density both tables
+ * are bulk loaded with the same vectors; the point where the EAV numbers drop
+ * below the STD ones is the break-even density.
+ */
+public class SparsityReport {
+
+	static final double[] densities = {1.0, 0.5, 0.2, 0.1, 0.05, 0.02, 0.01};
+	static final int tableSize = 100000;
+	static final int cols = Main.cols;
+	static final int[] attrs = Main.attrs;
+	static final int lookups = 10000;
+	static final int rangeSize = 100;
+	static final int ranges = 1000;
+
+	private final ConnectionFactory connections = ReportSupport.connections();
+
+	private static double[] getRandomValues(Random rnd, int n, double density) {
+		double[] res = new double[n];
+		for( int i = 0; i < n; i++ ) {
+			res[i] = rnd.nextDouble() < density ? rnd.nextDouble() : 0.0;
+		}
+		return res;
+	}
+
+	private void report(Connection con, IDBOperations schema, String tableName, double[][] vecs)
+		throws SQLException {
+		final Random rnd = new Random(7);
+		schema.setConnection(con);
+		schema.createTable(cols, attrs);
+		schema.bulkInsert(vecs);
+		schema.commit();
+
+		final long[] bytes = DerbyDiag.getAllocatedBytes(con, tableName);
+		System.out.println(String.format("\t %s table: %.1f MB, index: %.1f MB",
+			schema.getName(), bytes[0] / 1048576.0, bytes[1] / 1048576.0));
+
+		final LatencyHistogram hist = new LatencyHistogram();
+		for( int i = 0; i < lookups; i++ ) {
+			final int id = rnd.nextInt(tableSize);
+			hist.start();
+			schema.getVals(id);
+			hist.stop();
+		}
+		ReportSupport.printLatencies("getVals", hist);
+		hist.clear();
+		for( int i = 0; i < ranges; i++ ) {
+			final int from = rnd.nextInt(tableSize - rangeSize);
+			hist.start();
+			schema.getRange(from, from + rangeSize);
+			hist.stop();
+		}
+		ReportSupport.printLatencies("getRange", hist);
+		schema.commit();
+		schema.dispose();
+	}
+
+	public void go(String[] args) {
+		Connection con = null;
+		try {
+			ReportSupport.loadDriver();
+			con = connections.newConnection();
+			for( double density: densities ) {
+				System.out.println(String.format("density: %.2f", density));
+				final Random rnd = new Random(42);
+				final double[][] vecs = new double[tableSize][];
+				for( int i = 0; i < tableSize; i++ ) {
+					vecs[i] = getRandomValues(rnd, cols, density);
+				}
+				report(con, new STDTable(), STDTable.SQL_TABLE_NAME, vecs);
+				report(con, new EAVTable(EAVTable.IndexStrategy.KEY, true), EAVTable.SQL_TABLE_NAME, vecs);
+			}
+		} catch (SQLException sqlExc) {
+			Main.printSQLException(sqlExc);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			ReportSupport.close(con);
+			ReportSupport.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		new SparsityReport().go(args);
+	}
+}
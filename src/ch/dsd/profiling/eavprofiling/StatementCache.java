@@ -0,0 +1,94 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of prepared statements for ad hoc attribute projections.
+ * Statements are keyed by a query kind plus the canonical (sorted, duplicate
+ * free) attribute set, so {3,1} and {1,3} share one compiled plan; callers
+ * map the canonical columns back to the requested order with positions().
+ * Evicted statements are closed.
+ */
+class StatementCache {
+	static final int DEFAULT_CAPACITY = 64;
+
+	private final int capacity;
+	private final LinkedHashMap<String, PreparedStatement> statements =
+		new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+	private long evictions = 0;
+
+	StatementCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	static int[] canonicalize(int[] attrs) {
+		final int[] sorted = attrs.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for( int i = 0; i < sorted.length; i++ ) {
+			if( n == 0 || sorted[n - 1] != sorted[i] ) sorted[n++] = sorted[i];
+		}
+		return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+	}
+
+	/**
+	 * @return for every requested attribute its index in the canonical set
+	 */
+	static int[] positions(int[] canonical, int[] attrs) {
+		final int[] res = new int[attrs.length];
+		for( int i = 0; i < attrs.length; i++ ) {
+			res[i] = Arrays.binarySearch(canonical, attrs[i]);
+		}
+		return res;
+	}
+
+	static String key(String kind, int[] canonical) {
+		final StringBuilder sb = new StringBuilder(kind);
+		for( int a: canonical ) {
+			sb.append(':');
+			sb.append(a);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the cached statement for key, or null
+	 */
+	PreparedStatement get(String key) {
+		return statements.get(key);
+	}
+
+	PreparedStatement prepare(Connection con, String key, String sql) throws SQLException {
+		final PreparedStatement ps = con.prepareStatement(sql);
+		statements.put(key, ps);
+		if( statements.size() > capacity ) {
+			final Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+			final PreparedStatement eldest = it.next().getValue();
+			it.remove();
+			evictions++;
+			eldest.close();
+		}
+		return ps;
+	}
+
+	void clear() throws SQLException {
+		for( PreparedStatement ps: statements.values() ) {
+			if( !ps.isClosed() ) ps.close();
+		}
+		statements.clear();
+	}
+
+	int size() {
+		return statements.size();
+	}
+
+	long getEvictions() {
+		return evictions;
+	}
+}
@@ -0,0 +1,99 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Dense row-major block of vectors backed by a single double[]. Row r starts
+ * at r * getStride(). A block can be reused across calls; clear() keeps the
+ * backing array, so once it is large enough, filling it allocates nothing.
+ */
+public class VectorBlock {
+	private static final int DEFAULT_ROWS = 64;
+
+	private double[] data;
+	private int stride;
+	private int rows;
+
+	public VectorBlock() {
+		this(0, 0);
+	}
+
+	public VectorBlock(int stride, int rowCapacity) {
+		this.stride = stride;
+		this.data = new double[stride * rowCapacity];
+		this.rows = 0;
+	}
+
+	/**
+	 * Empties the block and sets the row width for the next fill.
+	 */
+	public void clear(int stride) {
+		this.stride = stride;
+		this.rows = 0;
+	}
+
+	/**
+	 * Appends an uninitialized row, growing the backing array if necessary.
+	 *
+	 * @return offset of the new row in getData()
+	 */
+	public int addRow() {
+		final int off = rows * stride;
+		if( off + stride > data.length ) {
+			final int newRows = Math.max(DEFAULT_ROWS, rows * 2);
+			final double[] newData = new double[newRows * stride];
+			System.arraycopy(data, 0, newData, 0, off);
+			data = newData;
+		}
+		rows++;
+		return off;
+	}
+
+	public void ensureRowCapacity(int rowCapacity) {
+		if( rowCapacity * stride > data.length ) {
+			final double[] newData = new double[rowCapacity * stride];
+			System.arraycopy(data, 0, newData, 0, rows * stride);
+			data = newData;
+		}
+	}
+
+	public double get(int row, int col) {
+		return data[row * stride + col];
+	}
+
+	public double[] getRow(int row) {
+		final double[] res = new double[stride];
+		System.arraycopy(data, row * stride, res, 0, stride);
+		return res;
+	}
+
+	public double[] getData() {
+		return data;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * @return a view of the filled part of the block, without copying
+	 */
+	public DoubleBuffer asDoubleBuffer() {
+		return DoubleBuffer.wrap(data, 0, rows * stride).slice();
+	}
+
+	/**
+	 * Returns the given block cleared for the given stride, or a new one if it is null.
+	 */
+	static VectorBlock reuse(VectorBlock block, int stride) {
+		if( block == null ) {
+			return new VectorBlock(stride, DEFAULT_ROWS);
+		}
+		block.clear(stride);
+		return block;
+	}
+}
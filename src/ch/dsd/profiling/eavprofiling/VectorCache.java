@@ -0,0 +1,207 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * Size-bounded LRU cache of projected vectors, keyed by (attribute set,
+ * vector id). Everything lives in primitive arrays allocated up front: an
+ * open-addressing hash index (linear probing) maps keys to slots, values are
+ * stored in a slab of maxWidth doubles per slot and the recency order is an
+ * intrusive doubly linked list over slot numbers. Not thread-safe.
+ */
+public class VectorCache {
+	private static final int NIL = -1;
+
+	private final int capacity;
+	private final int maxWidth;
+
+	/* hash index: slot + 1, 0 marks an empty bucket */
+	private final int[] index;
+	private final int mask;
+
+	private final long[] keys;
+	private final int[] widths;
+	private final double[] values;
+	private final int[] prev;
+	private final int[] next;
+	private int head = NIL;
+	private int tail = NIL;
+	private int size = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public VectorCache(int capacity, int maxWidth) {
+		if( capacity < 1 )
+			throw new IllegalArgumentException("Capacity must be positive");
+		this.capacity = capacity;
+		this.maxWidth = maxWidth;
+		int buckets = Integer.highestOneBit(capacity) << 2;
+		this.index = new int[buckets];
+		this.mask = buckets - 1;
+		this.keys = new long[capacity];
+		this.widths = new int[capacity];
+		this.values = new double[capacity * maxWidth];
+		this.prev = new int[capacity];
+		this.next = new int[capacity];
+	}
+
+	/**
+	 * Copies the cached vector into out and marks it as most recently used.
+	 *
+	 * @return the number of values copied, or -1 on a miss
+	 */
+	public int get(int attrSet, int idx, double[] out) {
+		final int slot = find(key(attrSet, idx));
+		if( slot == NIL ) {
+			misses++;
+			return -1;
+		}
+		hits++;
+		moveToFront(slot);
+		final int width = widths[slot];
+		System.arraycopy(values, slot * maxWidth, out, 0, width);
+		return width;
+	}
+
+	public void put(int attrSet, int idx, double[] vals) {
+		if( vals.length > maxWidth )
+			throw new IllegalArgumentException("Vector wider than " + maxWidth);
+		final long key = key(attrSet, idx);
+		int slot = find(key);
+		if( slot == NIL ) {
+			if( size < capacity ) {
+				slot = size++;
+			} else {
+				slot = tail;
+				unlink(slot);
+				removeFromIndex(slot);
+				evictions++;
+			}
+			keys[slot] = key;
+			insertIntoIndex(slot);
+			linkFront(slot);
+		} else {
+			moveToFront(slot);
+		}
+		widths[slot] = vals.length;
+		System.arraycopy(vals, 0, values, slot * maxWidth, vals.length);
+	}
+
+	public void invalidate(int attrSet, int idx) {
+		final int slot = find(key(attrSet, idx));
+		if( slot == NIL ) return;
+		unlink(slot);
+		removeFromIndex(slot);
+		/* keep slots dense: move the last used slot into the hole */
+		final int last = --size;
+		if( slot != last ) {
+			removeFromIndex(last);
+			keys[slot] = keys[last];
+			widths[slot] = widths[last];
+			System.arraycopy(values, last * maxWidth, values, slot * maxWidth, widths[last]);
+			prev[slot] = prev[last];
+			next[slot] = next[last];
+			if( prev[slot] != NIL ) next[prev[slot]] = slot; else head = slot;
+			if( next[slot] != NIL ) prev[next[slot]] = slot; else tail = slot;
+			insertIntoIndex(slot);
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(index, 0);
+		head = NIL;
+		tail = NIL;
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void resetCounters() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private static long key(int attrSet, int idx) {
+		return (((long) attrSet) << 32) | (idx & 0xffffffffL);
+	}
+
+	private int bucket(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int find(long key) {
+		int b = bucket(key);
+		int e;
+		while( (e = index[b]) != 0 ) {
+			if( keys[e - 1] == key ) return e - 1;
+			b = (b + 1) & mask;
+		}
+		return NIL;
+	}
+
+	private void insertIntoIndex(int slot) {
+		int b = bucket(keys[slot]);
+		while( index[b] != 0 ) {
+			b = (b + 1) & mask;
+		}
+		index[b] = slot + 1;
+	}
+
+	private void removeFromIndex(int slot) {
+		int b = bucket(keys[slot]);
+		while( index[b] != slot + 1 ) {
+			b = (b + 1) & mask;
+		}
+		/* backward shift deletion keeps probe sequences intact without tombstones */
+		int hole = b;
+		int j = b;
+		while( true ) {
+			j = (j + 1) & mask;
+			final int e = index[j];
+			if( e == 0 ) break;
+			final int home = bucket(keys[e - 1]);
+			if( ((j - home) & mask) >= ((j - hole) & mask) ) {
+				index[hole] = e;
+				hole = j;
+			}
+		}
+		index[hole] = 0;
+	}
+
+	private void linkFront(int slot) {
+		prev[slot] = NIL;
+		next[slot] = head;
+		if( head != NIL ) prev[head] = slot;
+		head = slot;
+		if( tail == NIL ) tail = slot;
+	}
+
+	private void unlink(int slot) {
+		if( prev[slot] != NIL ) next[prev[slot]] = next[slot]; else head = next[slot];
+		if( next[slot] != NIL ) prev[next[slot]] = prev[slot]; else tail = prev[slot];
+	}
+
+	private void moveToFront(int slot) {
+		if( slot == head ) return;
+		unlink(slot);
+		linkFront(slot);
+	}
+}
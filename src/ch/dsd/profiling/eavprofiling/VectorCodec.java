@@ -0,0 +1,16 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * Encoding of a run of doubles into the bytes stored for a chunk. Decoding
+ * writes into a caller supplied array and allocates nothing, so a scan can
+ * reuse one buffer for every chunk it reads. Implementations are stateless.
+ */
+public interface VectorCodec {
+	/* Short name for layout names and reports. */
+	public String getName();
+	/* Upper bound of encode(vals, n).length. */
+	public int maxEncodedSize( int n );
+	public byte[] encode( double[] vals, int n );
+	/* Decode into out, starting at index 0; returns the number of values. */
+	public int decode( byte[] data, double[] out );
+}
@@ -0,0 +1,12 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.sql.SQLException;
+
+/**
+ * Callback for streaming scans. The vals array is reused for every vector;
+ * copy it if it has to outlive the call.
+ */
+public interface VectorConsumer {
+
+	public void accept( double[] vals ) throws SQLException;
+}
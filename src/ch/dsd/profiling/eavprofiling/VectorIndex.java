@@ -0,0 +1,13 @@
+package ch.dsd.profiling.eavprofiling;
+
+/**
+ * In-memory nearest neighbour index over fixed-width (projected) vectors,
+ * by Euclidean distance. Implementations are not thread-safe.
+ */
+public interface VectorIndex {
+	public int getDimensions();
+	public void add( int id, double[] vals );
+	public int size();
+	public Neighbors nearest( double[] query, int k );
+	public void clear();
+}
@@ -0,0 +1,120 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Arrays;
+
+/**
+ * Lossless XOR compression as in Facebook's Gorilla: every value is XORed
+ * with its predecessor, a repeated value costs one bit and a close one only
+ * its meaningful bits, written inside the previous leading/trailing zero
+ * window when they fit. Works well on slowly changing or low-precision
+ * series such as one attribute over consecutive vectors; random doubles grow
+ * by up to 13 bits per value.
+ */
+public class XorCodec implements VectorCodec {
+	private static final int HEADER_BITS = 32;
+	private static final int MAX_BITS_PER_VALUE = 2 + 5 + 6 + 64;
+
+	@Override
+	public String getName() {
+		return "XOR";
+	}
+
+	@Override
+	public int maxEncodedSize(int n) {
+		return n == 0 ? HEADER_BITS / 8 : (HEADER_BITS + 64 + (n - 1) * MAX_BITS_PER_VALUE + 7) / 8;
+	}
+
+	@Override
+	public byte[] encode(double[] vals, int n) {
+		final byte[] buf = new byte[maxEncodedSize(n)];
+		int pos = writeBits(buf, 0, n, HEADER_BITS);
+		if( n > 0 ) {
+			long prev = Double.doubleToRawLongBits(vals[0]);
+			pos = writeBits(buf, pos, prev, 64);
+			int prevLead = Integer.MAX_VALUE;
+			int prevTrail = 0;
+			for( int i = 1; i < n; i++ ) {
+				final long bits = Double.doubleToRawLongBits(vals[i]);
+				final long xor = bits ^ prev;
+				prev = bits;
+				if( xor == 0 ) {
+					pos = writeBits(buf, pos, 0, 1);
+					continue;
+				}
+				final int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				final int trail = Long.numberOfTrailingZeros(xor);
+				if( lead >= prevLead && trail >= prevTrail ) {
+					/* fits into the previous window */
+					pos = writeBits(buf, pos, 2, 2);
+					pos = writeBits(buf, pos, xor >>> prevTrail, 64 - prevLead - prevTrail);
+				} else {
+					final int sig = 64 - lead - trail;
+					pos = writeBits(buf, pos, 3, 2);
+					pos = writeBits(buf, pos, lead, 5);
+					pos = writeBits(buf, pos, sig - 1, 6);
+					pos = writeBits(buf, pos, xor >>> trail, sig);
+					prevLead = lead;
+					prevTrail = trail;
+				}
+			}
+		}
+		return Arrays.copyOf(buf, (pos + 7) / 8);
+	}
+
+	@Override
+	public int decode(byte[] data, double[] out) {
+		final int n = (int) readBits(data, 0, HEADER_BITS);
+		if( n == 0 ) return 0;
+		int pos = HEADER_BITS;
+		long prev = readBits(data, pos, 64);
+		pos += 64;
+		out[0] = Double.longBitsToDouble(prev);
+		int lead = 0;
+		int trail = 0;
+		for( int i = 1; i < n; i++ ) {
+			if( readBits(data, pos++, 1) != 0 ) {
+				if( readBits(data, pos++, 1) != 0 ) {
+					lead = (int) readBits(data, pos, 5);
+					final int sig = (int) readBits(data, pos + 5, 6) + 1;
+					trail = 64 - lead - sig;
+					pos += 11;
+				}
+				final int sig = 64 - lead - trail;
+				prev ^= readBits(data, pos, sig) << trail;
+				pos += sig;
+			}
+			out[i] = Double.longBitsToDouble(prev);
+		}
+		return n;
+	}
+
+	/**
+	 * Writes the lowest n bits of value at bit position pos, most significant
+	 * first, into a zeroed buffer.
+	 *
+	 * @return the bit position after the written bits
+	 */
+	private static int writeBits(byte[] buf, int pos, long value, int n) {
+		while( n > 0 ) {
+			final int free = 8 - (pos & 7);
+			final int take = Math.min(free, n);
+			final int bits = (int) (value >>> (n - take)) & ((1 << take) - 1);
+			buf[pos >>> 3] |= bits << (free - take);
+			pos += take;
+			n -= take;
+		}
+		return pos;
+	}
+
+	private static long readBits(byte[] data, int pos, int n) {
+		long res = 0;
+		while( n > 0 ) {
+			final int avail = 8 - (pos & 7);
+			final int take = Math.min(avail, n);
+			res = (res << take) | ((data[pos >>> 3] & 0xff) >>> (avail - take) & ((1 << take) - 1));
+			pos += take;
+			n -= take;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,57 @@
+package ch.dsd.profiling.eavprofiling;
+
+import java.util.Random;
+
+/**
+ * Zipf distributed integers in [0, n), after Gray et al., "Quickly Generating
+ * Billion-Record Synthetic Databases". Item 0 is the most popular one. Setting
+ * up a generator costs O(n) for the zeta constant; drawing is O(1).
+ */
+public class ZipfGenerator {
+	private final int n;
+	private final double theta;
+	private final double alpha;
+	private final double zetan;
+	private final double eta;
+	private final Random rnd;
+
+	public ZipfGenerator(int n, double theta, Random rnd) {
+		this.n = n;
+		this.theta = theta;
+		this.rnd = rnd;
+		this.zetan = zeta(n, theta);
+		this.alpha = 1.0 / (1.0 - theta);
+		this.eta = (1.0 - Math.pow(2.0 / n, 1.0 - theta)) / (1.0 - zeta(2, theta) / zetan);
+	}
+
+	public int nextInt() {
+		final double u = rnd.nextDouble();
+		final double uz = u * zetan;
+		if( uz < 1.0 ) return 0;
+		if( uz < 1.0 + Math.pow(0.5, theta) ) return Math.min(1, n - 1);
+		final int res = (int) (n * Math.pow(eta * u - eta + 1.0, alpha));
+		return Math.min(res, n - 1);
+	}
+
+	/**
+	 * Like nextInt(), but spreads the popular items over [0, n) so that the
+	 * hot set is not a contiguous key range.
+	 */
+	public int nextScrambledInt() {
+		long h = nextInt() * 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 29);
+		return (int) ((h & Long.MAX_VALUE) % n);
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	private static double zeta(int n, double theta) {
+		double sum = 0;
+		for( int i = 1; i <= n; i++ ) {
+			sum += 1.0 / Math.pow(i, theta);
+		}
+		return sum;
+	}
+}